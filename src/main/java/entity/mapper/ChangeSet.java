@@ -0,0 +1,242 @@
+package entity.mapper;
+
+import entity.mapper.fieldmaps.FieldMap;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records the fields changed by a toEntity merge.
+ * <p>
+ * The modified flag of a ChangeSet (see getModifiedFlag()) can be passed wherever a modified flag is accepted. The flag is set as usual,
+ * and in addition each change is recorded by external field path with its old and new values. The changes within an existing item of
+ * a collection are recorded under the identifier of the item, e.g. items[7].name. The paths are those of the components and items
+ * the merge descended through, so the fields of a mapper used in several places (e.g. a reflected mapper) are recorded at each place.
+ * The changed fields of each mapper are also kept in a bitset indexed by the position of the field map in its mapper, so that a
+ * persistence layer can cheaply test whether a field or component was touched. The bitset of a mapper used in several places holds
+ * the fields changed in any of them.
+ * <p>
+ * A ChangeSet is meant to be used by a single merge and is not thread safe.
+ */
+public class ChangeSet {
+    private final ModifiedFlag modifiedFlag = new ModifiedFlag(this);
+    private final Map<String, Change> changes = new LinkedHashMap<>();
+    private final Map<EntityMapper, BitSet> changedFieldMaps = new IdentityHashMap<>();
+    // the external path prefixes of the components and collection items being merged, innermost first
+    private final Deque<String> prefixes = new ArrayDeque<>();
+
+    /**
+     * Marks a field as modified.
+     *
+     * @param modified the modified flag of the merge (may be null). If it is the flag of a ChangeSet, the change is recorded.
+     * @param fieldMap field map of the modified field
+     * @param oldValue value of the field before the merge
+     * @param newValue value of the field after the merge
+     */
+    public static void markModified(AtomicBoolean modified, FieldMap fieldMap, Object oldValue, Object newValue) {
+        if (modified == null) {
+            return;
+        }
+        modified.set(true);
+        if (modified instanceof ModifiedFlag) {
+            ((ModifiedFlag) modified).changeSet.record(fieldMap, oldValue, newValue);
+        }
+    }
+
+    /**
+     * Starts the merge of an existing component, so that its changes are recorded under the path of the component.
+     * Each call must be followed by a call to endComponent().
+     *
+     * @param modified     the modified flag of the merge (may be null)
+     * @param componentMap field map of the component
+     */
+    public static void beginComponent(AtomicBoolean modified, FieldMap componentMap) {
+        if (modified instanceof ModifiedFlag) {
+            ChangeSet changeSet = ((ModifiedFlag) modified).changeSet;
+            changeSet.prefixes.push(changeSet.path(componentMap) + ".");
+        }
+    }
+
+    /**
+     * Ends the merge of the component started by beginComponent()
+     *
+     * @param modified the modified flag of the merge (may be null)
+     */
+    public static void endComponent(AtomicBoolean modified) {
+        if (modified instanceof ModifiedFlag) {
+            ((ModifiedFlag) modified).changeSet.prefixes.pop();
+        }
+    }
+
+    /**
+     * Starts the merge of an existing item of a collection, so that its changes are recorded under the identifier of the item.
+     * Each call must be followed by a call to endItem().
+     *
+     * @param modified      the modified flag of the merge (may be null)
+     * @param collectionMap field map of the collection
+     * @param key           identifier of the item
+     */
+    public static void beginItem(AtomicBoolean modified, FieldMap collectionMap, Object key) {
+        if (modified instanceof ModifiedFlag) {
+            ChangeSet changeSet = ((ModifiedFlag) modified).changeSet;
+            changeSet.prefixes.push(changeSet.path(collectionMap) + "[" + key + "].");
+        }
+    }
+
+    /**
+     * Ends the merge of the item started by beginItem()
+     *
+     * @param modified the modified flag of the merge (may be null)
+     */
+    public static void endItem(AtomicBoolean modified) {
+        if (modified instanceof ModifiedFlag) {
+            ((ModifiedFlag) modified).changeSet.prefixes.pop();
+        }
+    }
+
+    /**
+     * @return the flag to pass as the modified flag of a merge, to record its changes in this ChangeSet
+     */
+    public AtomicBoolean getModifiedFlag() {
+        return modifiedFlag;
+    }
+
+    /**
+     * @return true if the merge modified the target
+     */
+    public boolean isModified() {
+        return modifiedFlag.get();
+    }
+
+    /**
+     * Records a change. If the same path changes more than once, the first old value and the last new value are kept.
+     */
+    public void record(FieldMap fieldMap, Object oldValue, Object newValue) {
+        modifiedFlag.set(true);
+        String path = path(fieldMap);
+        Change change = changes.get(path);
+        changes.put(path, new Change(path, change != null ? change.oldValue : oldValue, newValue));
+
+        EntityMapper mapper = fieldMap.getParentEntityMapper();
+        if (mapper != null) {
+            int index = mapper.indexOfFieldMap(fieldMap);
+            if (index >= 0) {
+                changedFieldMaps.computeIfAbsent(mapper, k -> new BitSet()).set(index);
+            }
+        }
+    }
+
+    /**
+     * @return the external path of a field under the components and items being merged, or its own external path outside of them
+     */
+    private String path(FieldMap fieldMap) {
+        String prefix = prefixes.peek();
+        return prefix != null ? prefix + fieldMap.getExternalFieldName() : fieldMap.getExternalPath();
+    }
+
+    /**
+     * @return the changes keyed by external field path, in the order they were first recorded
+     */
+    public Map<String, Change> getChanges() {
+        return Collections.unmodifiableMap(changes);
+    }
+
+    public Collection<String> getChangedPaths() {
+        return Collections.unmodifiableSet(changes.keySet());
+    }
+
+    /**
+     * @param externalPath external field path (e.g. address.street)
+     * @return the change or null if the field was not changed
+     */
+    public Change getChange(String externalPath) {
+        return changes.get(externalPath);
+    }
+
+    public boolean isChanged(String externalPath) {
+        return changes.containsKey(externalPath);
+    }
+
+    public boolean isChanged(FieldMap fieldMap) {
+        EntityMapper mapper = fieldMap.getParentEntityMapper();
+        BitSet bitSet = mapper != null ? changedFieldMaps.get(mapper) : null;
+        return bitSet != null && bitSet.get(mapper.indexOfFieldMap(fieldMap));
+    }
+
+    /**
+     * @param mapper mapper of the fields
+     * @return true if any field of the mapper was changed
+     */
+    public boolean isChanged(EntityMapper mapper) {
+        BitSet bitSet = changedFieldMaps.get(mapper);
+        return bitSet != null && !bitSet.isEmpty();
+    }
+
+    /**
+     * @param mapper mapper of the fields
+     * @return the positions in mapper.getFieldMaps() of the changed fields
+     */
+    public BitSet getChangedFieldMaps(EntityMapper mapper) {
+        BitSet bitSet = changedFieldMaps.get(mapper);
+        return bitSet != null ? (BitSet) bitSet.clone() : new BitSet();
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return changes.values().toString();
+    }
+
+    /**
+     * The modified flag of a merge recording its changes in a ChangeSet
+     */
+    private static final class ModifiedFlag extends AtomicBoolean {
+        private final ChangeSet changeSet;
+
+        ModifiedFlag(ChangeSet changeSet) {
+            this.changeSet = changeSet;
+        }
+    }
+
+    /**
+     * A change of a single field
+     */
+    public static class Change {
+        private final String path;
+        private final Object oldValue;
+        private final Object newValue;
+
+        public Change(String path, Object oldValue, Object newValue) {
+            this.path = path;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Object getOldValue() {
+            return oldValue;
+        }
+
+        public Object getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + oldValue + " -> " + newValue;
+        }
+    }
+}
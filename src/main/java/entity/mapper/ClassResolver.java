@@ -0,0 +1,142 @@
+package entity.mapper;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves class names, caching the classes found and the names not found by class loader, so each name is looked up once per class loader
+ * by all the parsers.
+ * <p>
+ * The class loaders and the classes are weakly referenced, so the cache does not prevent them from being unloaded. The lookups take no lock.
+ * A class missing when it was first resolved stays missing until the cache of its class loader is invalidated. A class that is found but
+ * cannot be loaded (e.g. one of its dependencies is missing) is not cached, and is looked up again on the next use.
+ */
+public final class ClassResolver {
+    // sentinel of the names not found
+    private static final Reference<Class<?>> NOT_FOUND = new WeakReference<>(null);
+
+    private static final ConcurrentMap<LoaderKey, ConcurrentMap<String, Reference<Class<?>>>> classesByLoader = new ConcurrentHashMap<>();
+    // keys of the class loaders that were garbage collected
+    private static final ReferenceQueue<ClassLoader> collectedLoaders = new ReferenceQueue<>();
+    // the bootstrap class loader, which is never unloaded
+    private static final ConcurrentMap<String, Reference<Class<?>>> bootstrapClasses = new ConcurrentHashMap<>();
+
+    private ClassResolver() {
+    }
+
+    /**
+     * Resolves a class name, initialising the class as Class.forName() does
+     *
+     * @param className   the fully qualified name of the class
+     * @param classLoader the class loader the class is loaded from (null for the bootstrap class loader)
+     * @return the class, or null if the class loader has no such class
+     * @throws LinkageError if the class is found but cannot be loaded
+     */
+    public static Class<?> resolve(String className, ClassLoader classLoader) {
+        ConcurrentMap<String, Reference<Class<?>>> classes = classes(classLoader);
+        Reference<Class<?>> reference = classes.get(className);
+        if (reference == NOT_FOUND) {
+            return null;
+        }
+        Class<?> clazz = reference != null ? reference.get() : null;
+        if (clazz == null) {
+            // not resolved yet, or a class of another class loader that was unloaded
+            try {
+                clazz = Class.forName(className, true, classLoader);
+                classes.put(className, new WeakReference<>(clazz));
+            } catch (ClassNotFoundException e) {
+                classes.put(className, NOT_FOUND);
+            }
+        }
+        return clazz;
+    }
+
+    /**
+     * Resolves a class name as resolve() does, failing as Class.forName() does if the class is not found
+     *
+     * @param className   the fully qualified name of the class
+     * @param classLoader the class loader the class is loaded from (null for the bootstrap class loader)
+     * @return the class
+     * @throws ClassNotFoundException if the class loader has no such class
+     * @throws LinkageError           if the class is found but cannot be loaded
+     */
+    public static Class<?> forName(String className, ClassLoader classLoader) throws ClassNotFoundException {
+        Class<?> clazz = resolve(className, classLoader);
+        if (clazz == null) {
+            throw new ClassNotFoundException(className);
+        }
+        return clazz;
+    }
+
+    /**
+     * Discards the classes resolved with a class loader, e.g. after classes were added to it
+     *
+     * @param classLoader the class loader
+     */
+    public static void invalidate(ClassLoader classLoader) {
+        if (classLoader == null) {
+            bootstrapClasses.clear();
+        } else {
+            classesByLoader.remove(new LoaderKey(classLoader, null));
+        }
+    }
+
+    /**
+     * Discards all the resolved classes
+     */
+    public static void clear() {
+        classesByLoader.clear();
+        bootstrapClasses.clear();
+    }
+
+    private static ConcurrentMap<String, Reference<Class<?>>> classes(ClassLoader classLoader) {
+        if (classLoader == null) {
+            return bootstrapClasses;
+        }
+        for (Reference<? extends ClassLoader> collected = collectedLoaders.poll(); collected != null; collected = collectedLoaders.poll()) {
+            classesByLoader.remove(collected);
+        }
+
+        ConcurrentMap<String, Reference<Class<?>>> classes = classesByLoader.get(new LoaderKey(classLoader, null));
+        if (classes == null) {
+            ConcurrentMap<String, Reference<Class<?>>> newClasses = new ConcurrentHashMap<>();
+            classes = classesByLoader.putIfAbsent(new LoaderKey(classLoader, collectedLoaders), newClasses);
+            if (classes == null) {
+                classes = newClasses;
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Weak key of a class loader, compared by identity. A key whose class loader was collected is only equal to itself.
+     */
+    private static final class LoaderKey extends WeakReference<ClassLoader> {
+        private final int hash;
+
+        LoaderKey(ClassLoader classLoader, ReferenceQueue<ClassLoader> queue) {
+            super(classLoader, queue);
+            hash = System.identityHashCode(classLoader);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LoaderKey)) {
+                return false;
+            }
+            ClassLoader classLoader = get();
+            return classLoader != null && classLoader == ((LoaderKey) o).get();
+        }
+    }
+}
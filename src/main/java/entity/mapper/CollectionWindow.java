@@ -0,0 +1,70 @@
+package entity.mapper;
+
+/**
+ * Identifies the slice of a collection to be mapped, either as a page (offset and limit)
+ * or as the items following a given identifier (keyset paging).
+ */
+public class CollectionWindow {
+    // Keys of the map produced for a collection window
+    public static final String ITEMS_KEY = "items";
+    public static final String TOTAL_KEY = "total";
+
+    private final int offset;
+    private final int limit;
+    private final Object afterId;
+
+    private CollectionWindow(int offset, int limit, Object afterId) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset cannot be negative");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+        this.offset = offset;
+        this.limit = limit;
+        this.afterId = afterId;
+    }
+
+    /**
+     * @param offset position of the first item in the window
+     * @param limit  maximum number of items in the window
+     * @return a window of items by position
+     */
+    public static CollectionWindow range(int offset, int limit) {
+        return new CollectionWindow(offset, limit, null);
+    }
+
+    /**
+     * @param afterId identifier of the item preceding the window (e.g. the last item of the previous page).
+     *                It is converted to the type of the identifiers of the collection, e.g. from an Integer parsed from JSON to a Long.
+     * @param limit   maximum number of items in the window
+     * @return a window of the items following the identified item
+     */
+    public static CollectionWindow after(Object afterId, int limit) {
+        if (afterId == null) {
+            throw new IllegalArgumentException("An identifier is required for a keyset window");
+        }
+        return new CollectionWindow(0, limit, afterId);
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public Object getAfterId() {
+        return afterId;
+    }
+
+    public boolean isKeyset() {
+        return afterId != null;
+    }
+
+    @Override
+    public String toString() {
+        return isKeyset() ? String.format("[after %s, limit %d]", afterId, limit) : String.format("[offset %d, limit %d]", offset, limit);
+    }
+}
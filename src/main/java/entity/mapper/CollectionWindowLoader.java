@@ -0,0 +1,31 @@
+package entity.mapper;
+
+import entity.mapper.fieldmaps.CollectionMap;
+
+import java.util.List;
+
+/**
+ * May be implemented by a SessionContext to fetch a window of a collection directly (e.g. with a paged query),
+ * rather than loading the whole collection and slicing it in memory.
+ */
+public interface CollectionWindowLoader {
+
+    /**
+     * Fetch the items of a collection window
+     *
+     * @param owner         entity data owning the collection
+     * @param collectionMap collection map of the collection
+     * @param window        the window to fetch
+     * @return the items in the window, or null if this collection cannot be fetched by the loader (it is then sliced in memory)
+     */
+    List<?> loadWindow(Object owner, CollectionMap collectionMap, CollectionWindow window);
+
+    /**
+     * Count the items of a collection. Only called for collections whose window was fetched by the loader.
+     *
+     * @param owner         entity data owning the collection
+     * @param collectionMap collection map of the collection
+     * @return the number of items in the whole collection
+     */
+    long countCollection(Object owner, CollectionMap collectionMap);
+}
@@ -3,22 +3,53 @@ package entity.mapper;
 import entity.mapper.datamap.DataMap;
 import entity.mapper.fieldmaps.CollectionMap;
 
+import java.util.Iterator;
 import java.util.List;
 
 public class EntityCollectionDataMapping implements EntityDataMapping {
     private CollectionMap fieldMap;
     private List<DataMap> dataMap;
+    private Iterator<DataMap> dataMaps;
 
     public EntityCollectionDataMapping(CollectionMap fieldMap, List<DataMap> dataMap) {
         this.fieldMap = fieldMap;
         this.dataMap = dataMap;
     }
 
+    /**
+     * Creates a streamed mapping. The items are not held by the mapping, they are read once through getDataMaps().
+     */
+    public EntityCollectionDataMapping(CollectionMap fieldMap, Iterator<DataMap> dataMaps) {
+        this.fieldMap = fieldMap;
+        this.dataMaps = dataMaps;
+    }
+
     public CollectionMap getFieldMap() {
         return fieldMap;
     }
 
+    /**
+     * @return the items of the collection
+     * @throws IllegalStateException if the mapping is streamed
+     */
     public List<DataMap> getDataMap() {
+        if (dataMaps != null) {
+            throw new IllegalStateException("Collection " + fieldMap.getExternalFieldName() + " is streamed, use getDataMaps()");
+        }
         return dataMap;
     }
+
+    /**
+     * @return an iterator over the items of the collection. For a streamed mapping it can only be consumed once.
+     */
+    public Iterator<DataMap> getDataMaps() {
+        return dataMaps != null ? dataMaps : dataMap.iterator();
+    }
+
+    /**
+     * @return true if the items are supplied by an iterator rather than a list
+     */
+    public boolean isStreamed() {
+        return dataMaps != null;
+    }
 }
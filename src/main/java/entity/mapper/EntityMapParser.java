@@ -4,10 +4,9 @@ import entity.mapper.fieldmaps.*;
 
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Implements a simple recursive descent parser for Entity Map specifications.
@@ -18,10 +17,16 @@ import java.util.regex.Pattern;
  * <p>
  * Note that the extended notation set( option | option ... ) is used to specify an unordered set of options, which cannot be cleanly specified in EBNF.
  * This is distinct from a repetition of an alternation { option | option ... } which allows multiple occurrences of any option.
- * map specification        = { alias definition }, entity map;
+ * map specification        = { alias definition | import definition }, entity map;
  * <p>
  * alias definition         = "alias", identifier, "as", alias;
  * alias                    = identifier;
+ * import definition        = "import", map name, "as", import alias;
+ * map name                 = identifier | string literal;
+ * import alias             = identifier;
+ * <p>
+ * An import definition names an entity map resolved by the import resolver of the parser (e.g. a file of an EntityMapperRegistry).
+ * The imported map is resolved once, and each component or collection map naming its import alias gets a copy of its mapper.
  * <p>
  * entity map               = specified entity map | reflected entity map;
  * specified entity map     = entity spec, field map list;
@@ -50,16 +55,21 @@ import java.util.regex.Pattern;
  * <p>
  * cascade spec             = "with", ( "cascade-update" | "cascade-delete" | "cascade-all" )
  * <p>
- * collection map           = specified collection map | reflected collection map;
+ * collection map           = specified collection map | reflected collection map | imported collection map;
  * specified collection map = "[", [ collection mode ], entity spec, [ join spec, [ cascade spec ] ], "]", field map list;
  * reflected collection map = "[", [ collection mode ], reflected entity map, [ join spec, [ cascade spec ] ], "]";
+ * imported collection map  = "[", [ collection mode ], import alias, [ join spec, [ cascade spec ] ], "]";
  * collection mode          = "lazy" | "eager";
  * <p>
+ * Collections are eager unless declared "lazy". Lazy collections are not rendered with their owning entity,
+ * and are mapped separately through their sub-resource path.
+ * <p>
  * merged collection map    = "[", [ collection mode ], variant class list, [ "indexed", "by", external field ], [ "using", handler class ], "]", field map list;
  * <p>
- * component map            = ( set( "optional" | "flattened" ), ( specified component map | reflected component map )) | subclass component map;
+ * component map            = ( set( "optional" | "flattened" ), ( specified component map | reflected component map | imported component map )) | subclass component map;
  * specified component map  = entity spec, [ join spec ], [ cascade spec ], field map list;
  * reflected component map  = reflected entity map, [ join spec ], [ cascade spec ];
+ * imported component map   = import alias, [ join spec ], [ cascade spec ];
  * subclass component map   = "subclass", entity class, [ custom map handler spec ], field map list;
  * <p>
  * entity spec              = entity class, [ "unlocalised" ], [ "(", variant class list, ")" ], [ custom map handler spec ];
@@ -85,10 +95,23 @@ import java.util.regex.Pattern;
 public class EntityMapParser<T> {
     private static final Logger LOGGER = Logger.getLogger(EntityMapParser.class.getName());
 
-    private String input;
+    // not a keyword, so that it remains a valid field name: a class cannot be named import
+    private static final String IMPORT = "import";
+
+    // Input scanned once, from position forwards
+    private final char[] input;
+    private int position;
+    private int line = 1;
+    private int column = 1;
     private String source;
+    // class loader of the entity classes
+    private final ClassLoader classLoader;
     private Token _nextToken = null;
     private Map<String, String> aliasMap = new HashMap<>();
+    // resolver of the imported entity maps (may be null)
+    private final Function<String, EntityMapper<?>> importResolver;
+    // imported entity maps by import alias
+    private Map<String, EntityMapper<?>> importMap = new HashMap<>();
 
     /**
      * Returns an EntityMapParser for parsing the specified Entity Resource Map specification.
@@ -98,7 +121,33 @@ public class EntityMapParser<T> {
      * @return The parsed EntityResourceMap
      */
     public EntityMapParser(String input, String ermFileName) {
-        this.input = input;
+        this(input, ermFileName, null);
+    }
+
+    /**
+     * Returns an EntityMapParser for parsing the specified Entity Resource Map specification, loading the entity classes from a class loader.
+     *
+     * @param input       the ERM specification
+     * @param ermFileName the file from which the ERM specification was loaded (may be null)
+     * @param classLoader the class loader of the entity classes (may be null for the class loader of the parser)
+     */
+    public EntityMapParser(String input, String ermFileName, ClassLoader classLoader) {
+        this(input, ermFileName, classLoader, null);
+    }
+
+    /**
+     * Returns an EntityMapParser for parsing the specified Entity Resource Map specification, resolving the entity maps it imports.
+     *
+     * @param input          the ERM specification
+     * @param ermFileName    the file from which the ERM specification was loaded (may be null)
+     * @param classLoader    the class loader of the entity classes (may be null for the class loader of the parser)
+     * @param importResolver the resolver of the imported entity maps by name (may be null if there are no imports). The resolver reports circular imports,
+     *                       as the resolver of each file loaded by an EntityMapperRegistry does.
+     */
+    public EntityMapParser(String input, String ermFileName, ClassLoader classLoader, Function<String, EntityMapper<?>> importResolver) {
+        this.input = input.toCharArray();
+        this.classLoader = classLoader != null ? classLoader : EntityMapParser.class.getClassLoader();
+        this.importResolver = importResolver;
         if (ermFileName == null) {
             source = "";
         } else {
@@ -112,12 +161,25 @@ public class EntityMapParser<T> {
      * @return An EntityMapper for the parsed entity resource map.
      */
     public EntityMapper<T> parse() {
-        while (peekToken().is(TokenType.Alias)) {
-            nextToken();
+        while (peekToken().is(TokenType.Alias) || isImport(peekToken())) {
+            if (isImport(nextToken())) {
+                Token nameToken = nextToken().expect(TokenType.Identifier, TokenType.StringLiteral);
+                String name = nameToken.is(TokenType.StringLiteral) ? nameToken.getValue().substring(1, nameToken.getValue().length() - 1) : nameToken.getUnresolvedValue();
+                nextToken().expect(TokenType.As);
+                Token aliasToken = nextToken().expect(TokenType.Identifier);
+                nextToken().expect(TokenType.Semicolon);
+                checkUndefinedAlias(aliasToken);
+                importMap.put(aliasToken.getUnresolvedValue(), importEntityMap(name, nameToken));
+                continue;
+            }
             String fullName = nextToken().expect(TokenType.Identifier).getValue();
             nextToken().expect(TokenType.As);
-            String alias = nextToken().expect(TokenType.Identifier).getValue();
+            Token aliasToken = nextToken().expect(TokenType.Identifier);
+            String alias = aliasToken.getValue();
             nextToken().expect(TokenType.Semicolon);
+            if (importMap.containsKey(alias)) {
+                checkUndefinedAlias(aliasToken);
+            }
             aliasMap.put(alias, fullName);
         }
         EntityMapper entityMapper;
@@ -138,6 +200,76 @@ public class EntityMapParser<T> {
         return entityMapper;
     }
 
+    /**
+     * Checks that an alias does not name another alias or import
+     */
+    private void checkUndefinedAlias(Token aliasToken) {
+        String alias = aliasToken.getUnresolvedValue();
+        if (aliasMap.containsKey(alias) || importMap.containsKey(alias)) {
+            throw new EntityMapParserException(String.format("Alias %s is already defined %s", alias, location(aliasToken)));
+        }
+    }
+
+    /**
+     * Resolves an imported entity map
+     *
+     * @param name      the name of the entity map
+     * @param nameToken the token of the name, for error messages
+     * @return the mapper of the imported map, copied for each use
+     */
+    private EntityMapper<?> importEntityMap(String name, Token nameToken) {
+        if (importResolver == null) {
+            throw new EntityMapParserException(String.format("Cannot import %s %s: imports are not supported by this parser", name, location(nameToken)));
+        }
+        EntityMapper<?> entityMapper;
+        try {
+            entityMapper = importResolver.apply(name);
+        } catch (EntityMapperException | EntityMapParserException e) {
+            throw new EntityMapParserException(String.format("Cannot import %s %s: %s", name, location(nameToken), e.getMessage()), e);
+        }
+        if (entityMapper == null) {
+            throw new EntityMapParserException(String.format("Entity map %s not found %s", name, location(nameToken)));
+        }
+        return entityMapper;
+    }
+
+    /**
+     * The position of a token in the input, for error messages
+     */
+    private String location(Token token) {
+        return source.isEmpty() ? String.format("(line %d, column %d)", token.line, token.column) : String.format("(line %d, column %d) %s", token.line, token.column, source);
+    }
+
+    private boolean isImport(Token token) {
+        return token.is(TokenType.Identifier) && IMPORT.equals(token.getUnresolvedValue());
+    }
+
+    /**
+     * @return the import map named by the next token, or null if the next token is not an import alias
+     */
+    private EntityMapper<?> peekImport() {
+        Token token = peekToken();
+        return token.is(TokenType.Identifier) ? importMap.get(token.getUnresolvedValue()) : null;
+    }
+
+    /**
+     * Checks whether an entity map imports other entity maps, without resolving them
+     *
+     * @param input the ERM specification
+     * @return true if the entity map has import definitions
+     */
+    static boolean hasImports(String input) {
+        EntityMapParser<Object> parser = new EntityMapParser<>(input, null);
+        while (parser.peekToken().is(TokenType.Alias) || parser.isImport(parser.peekToken())) {
+            if (parser.isImport(parser.nextToken())) {
+                return true;
+            }
+            while (!parser.nextToken().is(TokenType.Semicolon, TokenType.EndOfInput)) {
+            }
+        }
+        return false;
+    }
+
     /**
      * Parses a single collection map as part of a field map
      *
@@ -150,7 +282,7 @@ public class EntityMapParser<T> {
     private FieldMapProvider parseCollectionMap(String internalFieldName, String externalFieldName, String pluginName, boolean isAttribute, FieldMap.Access access, boolean exclusive) {
         nextToken().expect(TokenType.OpenSquareBracket);
 
-        CollectionMap.Mode collectionMode = CollectionMap.Mode.LAZY;
+        CollectionMap.Mode collectionMode = CollectionMap.Mode.EAGER;
         if (peekToken().is(TokenType.Lazy)) {
             collectionMode = CollectionMap.Mode.LAZY;
             nextToken();
@@ -161,6 +293,20 @@ public class EntityMapParser<T> {
 
         JoinSpec joinSpec = new JoinSpec();
         EntityFieldMap.Cascade cascade = null;
+        EntityMapper<?> importedMap = peekImport();
+        if (importedMap != null) { // imported collection map
+            nextToken();
+            EntityMapper entityMapper = importedMap.copy();
+            if (peekToken().is(TokenType.Join)) {
+                joinSpec = parseJoinSpec(entityMapper.getBaseClass());
+                if (peekToken().is(TokenType.With)) {
+                    cascade = parseCascadeSpec();
+                }
+            }
+            nextToken().expect(TokenType.CloseSquareBracket);
+            return CollectionMap.collection(internalFieldName, externalFieldName, pluginName, isAttribute, collectionMode, access, exclusive,
+                    entityMapper, null, joinSpec.foreignKey, joinSpec.parentKey, cascade);
+        }
         switch (peekToken().expect(TokenType.OpenAngleBracket, TokenType.Identifier).getTokenType()) {
             case OpenAngleBracket: // reflected collection map
                 nextToken();
@@ -215,7 +361,7 @@ public class EntityMapParser<T> {
     private FieldMapProvider parseMergedCollectionMap(String externalFieldName, FieldMap.Access access, boolean exclusive) {
         nextToken().expect(TokenType.OpenSquareBracket);
 
-        CollectionMap.Mode collectionMode = CollectionMap.Mode.LAZY;
+        CollectionMap.Mode collectionMode = CollectionMap.Mode.EAGER;
         if (peekToken().is(TokenType.Lazy)) {
             collectionMode = CollectionMap.Mode.LAZY;
             nextToken();
@@ -301,6 +447,21 @@ public class EntityMapParser<T> {
 
         JoinSpec joinSpec = new JoinSpec();
         EntityFieldMap.Cascade cascade = null;
+        EntityMapper<?> importedMap = peekImport();
+        if (importedMap != null) { // imported component map
+            nextToken();
+            entityMapper = importedMap.copy();
+            if (peekToken().is(TokenType.Join)) {
+                joinSpec = parseJoinSpec(entityMapper.getBaseClass());
+            }
+
+            if (peekToken().is(TokenType.With)) {
+                cascade = parseCascadeSpec();
+            }
+
+            return ComponentMap.component(internalFieldName, externalFieldName, pluginName, isAttribute, entityMapper, access, exclusive, outerJoin,
+                    flattened, joinSpec.foreignKey, joinSpec.parentKey, cascade);
+        }
         switch (peekToken().expect(TokenType.OpenAngleBracket, TokenType.Subclass, TokenType.Identifier).getTokenType()) {
             case OpenAngleBracket: // reflected component map
                 nextToken();
@@ -339,7 +500,8 @@ public class EntityMapParser<T> {
     }
 
     private boolean isPrimitiveType(Class primitiveType) {
-        return primitiveType.equals(String.class) || primitiveType.equals(Integer.class) || primitiveType.equals(Date.class);
+        return primitiveType.equals(String.class) || primitiveType.equals(Integer.class) || primitiveType.equals(Long.class)
+                || primitiveType.equals(Double.class) || primitiveType.equals(Date.class);
     }
 
     /**
@@ -515,7 +677,7 @@ public class EntityMapParser<T> {
             nextToken().expect(TokenType.CloseParenthesis, TokenType.CloseSquareBracket);
         } else if (peekToken().is(TokenType.Attribute)) {
             if (entitySpec.pluginName != null) {
-                throw new EntityMapParserException(String.format("Nested attribute fields not allowed at '%s' %s", input.subSequence(0, Math.min(20, input.length())), source));
+                throw new EntityMapParserException(String.format("Nested attribute fields not allowed at '%s' %s", remainingInput(), source));
             }
             nextToken();
             isAttribute = true;
@@ -586,7 +748,7 @@ public class EntityMapParser<T> {
     }
 
     /**
-     * Wraps Class.forName()
+     * Resolves an entity class through the shared ClassResolver
      *
      * @param entityClassName the name of the class to obtain
      * @param pluginName      the name of a plugin upon which the entity is dependent
@@ -598,13 +760,19 @@ public class EntityMapParser<T> {
             return String.class;
         } else if ("Integer".equalsIgnoreCase(entityClassName)) {
             return Integer.class;
+        } else if ("Long".equalsIgnoreCase(entityClassName)) {
+            return Long.class;
+        } else if ("Double".equalsIgnoreCase(entityClassName)) {
+            return Double.class;
         } else if ("Date".equalsIgnoreCase(entityClassName)) {
             return Date.class;
         }
         try {
-            return Class.forName(entityClassName);
+            return ClassResolver.forName(entityClassName, classLoader);
         } catch (ClassNotFoundException e) {
             throw new EntityMapParserException(String.format("Entity class %s not found %s", entityClassName, source), e);
+        } catch (LinkageError e) {
+            throw new EntityMapParserException(String.format("Entity class %s cannot be loaded %s", entityClassName, source), e);
         }
     }
 
@@ -627,37 +795,97 @@ public class EntityMapParser<T> {
             return token;
         }
 
-        // Special token for end of input
-        if (input.length() == 0) {
-            return new Token(TokenType.EndOfInput, "");
-        }
+        skipWhitespaceAndComments();
 
-        // Comments
-        while (input.startsWith("//") || input.startsWith("/*")) {
-            String terminator = input.startsWith("//") ? "\n" : "*/";
-            int i = input.indexOf(terminator);
-            if (i >= 0) {
-                input = input.substring(i + terminator.length()).trim();
-            }
+        // Special token for end of input
+        if (position == input.length) {
+            return new Token(TokenType.EndOfInput, "", line, column);
         }
 
-        // Search for a token match
+        // Search for a token match, in the order of the token types
         for (TokenType tokenType : TokenType.values()) {
-            if (tokenType.getPattern() == null) {
-                continue;
-            }
-            Matcher matcher = tokenType.getPattern().matcher(input);
-            if (matcher.find()) {
-                String tokenValue = matcher.group(1).trim();
-                input = matcher.replaceFirst("").trim();
-                token = new Token(tokenType, tokenValue);
+            int end = tokenType.match(input, position);
+            if (end > position) {
+                token = new Token(tokenType, new String(input, position, end - position), line, column);
+                advance(end);
                 if (!consume) {
                     _nextToken = token;
                 }
                 return token;
             }
         }
-        throw new EntityMapParserException(String.format("Unrecognised token at '%s' %s", input.subSequence(0, Math.min(20, input.length())), source));
+        throw new EntityMapParserException(String.format("Unrecognised token at '%s' (line %d, column %d) %s", remainingInput(), line, column, source));
+    }
+
+    /**
+     * Skips whitespace (and control characters), line comments and block comments. An unterminated comment runs to the end of the input.
+     */
+    private void skipWhitespaceAndComments() {
+        int i = position;
+        while (i < input.length) {
+            if (input[i] <= ' ') {
+                i++;
+            } else if (startsWith(input, i, "//")) {
+                int end = indexOf(input, i + 2, "\n");
+                i = end < 0 ? input.length : end + 1;
+            } else if (startsWith(input, i, "/*")) {
+                int end = indexOf(input, i + 2, "*/");
+                i = end < 0 ? input.length : end + 2;
+            } else {
+                break;
+            }
+        }
+        advance(i);
+    }
+
+    /**
+     * Moves the position forwards, keeping track of the line and column
+     */
+    private void advance(int newPosition) {
+        for (; position < newPosition; position++) {
+            if (input[position] == '\n') {
+                line++;
+                column = 1;
+            } else {
+                column++;
+            }
+        }
+    }
+
+    /**
+     * The start of the input that remains to be parsed, for error messages
+     */
+    private String remainingInput() {
+        int start = position;
+        while (start < input.length && input[start] <= ' ') {
+            start++;
+        }
+        int end = input.length;
+        while (end > start && input[end - 1] <= ' ') {
+            end--;
+        }
+        return new String(input, start, Math.min(20, end - start));
+    }
+
+    private static boolean startsWith(char[] chars, int offset, String prefix) {
+        if (offset + prefix.length() > chars.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (chars[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(char[] chars, int offset, String text) {
+        for (int i = offset; i + text.length() <= chars.length; i++) {
+            if (startsWith(chars, i, text)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     private Token peekToken() {
@@ -666,67 +894,149 @@ public class EntityMapParser<T> {
 
     /**
      * The valid tokens.
-     * Keywords must precede identifiers. More specific patterns must precede less specific patterns.
+     * Keywords must precede identifiers. More specific tokens must precede less specific tokens.
      * Implements CharSequence to allow String join operations.
      */
     private enum TokenType implements CharSequence {
-        OpenBrace("\\{", "open-brace"),
-        CloseBrace("\\}", "close-brace"),
-        OpenSquareBracket("\\[", "open-square-bracket"),
-        CloseSquareBracket("\\]", "close-square-bracket"),
-        Reflection("\\<\\>", "reflection-operator"),
-        Reference("\\-\\>", "reference-operator"),
-        OpenAngleBracket("\\<", "open-angle-bracket"),
-        CloseAngleBracket("\\>", "close-angle-bracket"),
-        OpenParenthesis("\\(", "open-parenthesis"),
-        CloseParenthesis("\\)", "close-parenthesis"),
-        Comma("\\,", "comma"),
-        Colon("\\:", "colon"),
-        Equal("\\=", "colon"),
-        Semicolon("\\;", "semicolon"),
-        OrBar("\\|", "or-bar"),
-        Attribute("\\@", "attribute-indicator"),
-        Alias("alias[\\s]+", "alias"),
-        As("as[\\s]+", "as"),
-        ReadOnly("readonly[\\s]+", "readonly"),
-        Final("final[\\s]+", "final"),
-        CreateOnly("createonly[\\s]+", "createonly"),
-        WriteOnly("writeonly[\\s]+", "writeonly"),
-        Sensitive("sensitive[\\s]+", "sensitive"),
-        Exclusive("exclusive[\\s]+", "exclusive"),
-        Lazy("lazy[\\s]+", "lazy"),
-        Eager("eager[\\s]+", "eager"),
-        Merge("merge[\\s]+", "merge"),
-        Join("join[\\s]+", "join"),
-        Indexed("indexed[\\s]+", "indexed"),
-        By("by[\\s]+", "by"),
-        Optional("optional[\\s]+", "optional"),
-        Using("using[\\s]+", "using"),
-        Subclass("subclass[\\s]+", "subclass"),
-        Flattened("flattened[\\s]+", "flattened"),
-        With("with[\\s]+", "with"),
-        Unlocalised("unlocalised[\\s]+", "unlocalised"),
-        CascadeUpdate("(cascade-update[\\s]*)(\\s|(?=]))", "cascade-update"),
-        CascadeDelete("(cascade-delete[\\s]*)(\\s|(?=]))", "cascade-delete"),
-        CascadeAll("(cascade-all[\\s]*)(\\s|(?=]))", "cascade-all"),
-        True("(true[\\s]*)(\\s|(?=[,}]))", "true"),
-        False("(false[\\s]*)(\\s|(?=[,}]))", "false"),
-        Identifier("[a-zA-Z_][a-zA-Z0-9._$-]*", "identifier"),
-        DecimalLiteral("[0-9]*\\.[0-9]+", "decimal-literal"),
-        IntegerLiteral("[0-9]+", "integer-literal"),
-        StringLiteral("((\"[^\"]*\")|('[^']*'))", "string-literal"),
-        EndOfInput(null, "end of input");
-
-        private Pattern pattern;
+        OpenBrace("{", Follow.ANY, "open-brace"),
+        CloseBrace("}", Follow.ANY, "close-brace"),
+        OpenSquareBracket("[", Follow.ANY, "open-square-bracket"),
+        CloseSquareBracket("]", Follow.ANY, "close-square-bracket"),
+        Reflection("<>", Follow.ANY, "reflection-operator"),
+        Reference("->", Follow.ANY, "reference-operator"),
+        OpenAngleBracket("<", Follow.ANY, "open-angle-bracket"),
+        CloseAngleBracket(">", Follow.ANY, "close-angle-bracket"),
+        OpenParenthesis("(", Follow.ANY, "open-parenthesis"),
+        CloseParenthesis(")", Follow.ANY, "close-parenthesis"),
+        Comma(",", Follow.ANY, "comma"),
+        Colon(":", Follow.ANY, "colon"),
+        Equal("=", Follow.ANY, "colon"),
+        Semicolon(";", Follow.ANY, "semicolon"),
+        OrBar("|", Follow.ANY, "or-bar"),
+        Attribute("@", Follow.ANY, "attribute-indicator"),
+        Alias("alias", Follow.WHITESPACE, "alias"),
+        As("as", Follow.WHITESPACE, "as"),
+        ReadOnly("readonly", Follow.WHITESPACE, "readonly"),
+        Final("final", Follow.WHITESPACE, "final"),
+        CreateOnly("createonly", Follow.WHITESPACE, "createonly"),
+        WriteOnly("writeonly", Follow.WHITESPACE, "writeonly"),
+        Sensitive("sensitive", Follow.WHITESPACE, "sensitive"),
+        Exclusive("exclusive", Follow.WHITESPACE, "exclusive"),
+        Lazy("lazy", Follow.WHITESPACE, "lazy"),
+        Eager("eager", Follow.WHITESPACE, "eager"),
+        Merge("merge", Follow.WHITESPACE, "merge"),
+        Join("join", Follow.WHITESPACE, "join"),
+        Indexed("indexed", Follow.WHITESPACE, "indexed"),
+        By("by", Follow.WHITESPACE, "by"),
+        Optional("optional", Follow.WHITESPACE, "optional"),
+        Using("using", Follow.WHITESPACE, "using"),
+        Subclass("subclass", Follow.WHITESPACE, "subclass"),
+        Flattened("flattened", Follow.WHITESPACE, "flattened"),
+        With("with", Follow.WHITESPACE, "with"),
+        Unlocalised("unlocalised", Follow.WHITESPACE, "unlocalised"),
+        CascadeUpdate("cascade-update", Follow.WHITESPACE_OR_SQUARE_BRACKET, "cascade-update"),
+        CascadeDelete("cascade-delete", Follow.WHITESPACE_OR_SQUARE_BRACKET, "cascade-delete"),
+        CascadeAll("cascade-all", Follow.WHITESPACE_OR_SQUARE_BRACKET, "cascade-all"),
+        True("true", Follow.WHITESPACE_OR_SEPARATOR, "true"),
+        False("false", Follow.WHITESPACE_OR_SEPARATOR, "false"),
+        Identifier(null, null, "identifier"),
+        DecimalLiteral(null, null, "decimal-literal"),
+        IntegerLiteral(null, null, "integer-literal"),
+        StringLiteral(null, null, "string-literal"),
+        EndOfInput(null, null, "end of input");
+
+        // characters that may follow a token
+        private enum Follow {
+            ANY,
+            WHITESPACE,
+            WHITESPACE_OR_SQUARE_BRACKET,
+            WHITESPACE_OR_SEPARATOR
+        }
+
+        private String text;
+        private Follow follow;
         private String description;
 
-        TokenType(String regex, String description) {
-            this.pattern = regex == null ? null : Pattern.compile("^(" + regex + ")");
+        TokenType(String text, Follow follow, String description) {
+            this.text = text;
+            this.follow = follow;
             this.description = description;
         }
 
-        public Pattern getPattern() {
-            return pattern;
+        /**
+         * Matches this token type at an offset of the input
+         *
+         * @return the end of the token, or the offset if the token does not match
+         */
+        private int match(char[] input, int offset) {
+            switch (this) {
+                case Identifier:
+                    if (offset < input.length && (isLetter(input[offset]) || input[offset] == '_')) {
+                        int end = offset + 1;
+                        while (end < input.length && (isLetter(input[end]) || isDigit(input[end]) || "._$-".indexOf(input[end]) >= 0)) {
+                            end++;
+                        }
+                        return end;
+                    }
+                    return offset;
+                case DecimalLiteral: {
+                    int dot = skipDigits(input, offset);
+                    if (dot < input.length && input[dot] == '.') {
+                        int end = skipDigits(input, dot + 1);
+                        return end > dot + 1 ? end : offset;
+                    }
+                    return offset;
+                }
+                case IntegerLiteral:
+                    return skipDigits(input, offset);
+                case StringLiteral:
+                    if (offset < input.length && (input[offset] == '"' || input[offset] == '\'')) {
+                        for (int end = offset + 1; end < input.length; end++) {
+                            if (input[end] == input[offset]) {
+                                return end + 1;
+                            }
+                        }
+                    }
+                    return offset;
+                case EndOfInput:
+                    return offset;
+                default:
+                    if (!startsWith(input, offset, text)) {
+                        return offset;
+                    }
+                    int end = offset + text.length();
+                    char next = end < input.length ? input[end] : 0;
+                    switch (follow) {
+                        case WHITESPACE:
+                            return end < input.length && isWhitespace(next) ? end : offset;
+                        case WHITESPACE_OR_SQUARE_BRACKET:
+                            return end < input.length && (isWhitespace(next) || next == ']') ? end : offset;
+                        case WHITESPACE_OR_SEPARATOR:
+                            return end < input.length && (isWhitespace(next) || next == ',' || next == '}') ? end : offset;
+                        default:
+                            return end;
+                    }
+            }
+        }
+
+        private static boolean isLetter(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        // the whitespace of regular expressions (\s)
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+        }
+
+        private static int skipDigits(char[] input, int offset) {
+            while (offset < input.length && isDigit(input[offset])) {
+                offset++;
+            }
+            return offset;
         }
 
         public String toString() {
@@ -765,10 +1075,14 @@ public class EntityMapParser<T> {
     private class Token {
         private final TokenType tokenType;
         private final String value;
+        private final int line;
+        private final int column;
 
-        Token(TokenType tokenType, String value) {
+        Token(TokenType tokenType, String value, int line, int column) {
             this.tokenType = tokenType;
             this.value = value;
+            this.line = line;
+            this.column = column;
         }
 
         private TokenType getTokenType() {
@@ -809,8 +1123,8 @@ public class EntityMapParser<T> {
          */
         private Token expect(TokenType... tokenTypes) {
             if (!is(tokenTypes)) {
-                throw new EntityMapParserException(String.format("Expecting %s - found '%s' before '%s' %s",
-                        String.join(" or ", (CharSequence[]) tokenTypes), value, input.subSequence(0, Math.min(20, input.length())), source));
+                throw new EntityMapParserException(String.format("Expecting %s - found '%s' (line %d, column %d) before '%s' %s",
+                        String.join(" or ", (CharSequence[]) tokenTypes), value, line, column, remainingInput(), source));
             }
             return this;
         }
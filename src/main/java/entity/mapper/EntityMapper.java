@@ -1,6 +1,7 @@
 package entity.mapper;
 
 import entity.mapper.datamap.DataMap;
+import entity.mapper.digest.Fingerprinter;
 import entity.mapper.field.convert.FieldConverter;
 import entity.mapper.fieldmaps.*;
 import entity.mapper.fieldtyper.FieldTyper;
@@ -14,11 +15,11 @@ import entity.session.SessionContext;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.lang.StringUtils;
 
-import java.beans.FeatureDescriptor;
-import java.beans.PropertyDescriptor;
 import java.io.Serializable;
+import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -55,26 +56,32 @@ public class EntityMapper<E> implements FieldTyper {
     private Collection<FieldMap> fieldMaps;
     // Map containing the fieldMaps indexing by Type
     private Map<Class<? extends FieldMap>, List<FieldMap>> mapByType;
-    // Map containing the fieldMaps indexing by internal field name
-    private Map<String, FieldMap> mapByInternalFieldName;
-    // Map containing the fieldMaps indexing by external field name
-    private Map<String, FieldMap> mapByExternalFieldName;
-    // Map of fields and its types. The map key is the field path. For example: employeeContact.employeeName
-    private Map<String, Class> mapFieldTypes;
-    // Map containing an index to transform a external field path to a internal field path
-    private Map<String, String> mapExternalToInternalFieldPath;
+    // Index of the fieldMaps by internal field path, sharing the indexes of the descendant mappers
+    private PathIndex<FieldMap> mapByInternalFieldName;
+    // Index of the fieldMaps by external field path, sharing the indexes of the descendant mappers
+    private PathIndex<FieldMap> mapByExternalFieldName;
+    // position of each field map in fieldMaps
+    private Map<FieldMap, Integer> fieldMapIndexes;
+    // Index of fields and its types by external field path. For example: employeeContact.employeeName
+    private PathIndex<Class> mapFieldTypes;
     // Discriminator field map (if subtypes are specified)
     private DiscriminatorFieldMap discriminatorFieldMap;
     private boolean discriminatorSpecified;
 
     private FieldMap parentFieldMap;
 
+    // Reflector for the base class, captured when the mapper is built
+    private Reflector reflector;
+
+    // Set once the mapper is shared (see share()), after which it cannot be changed
+    private volatile boolean shared;
+
     private EntityMapper(EntityClassSpec<E> baseClassSpec, Map<String, EntityClassSpec<E>> subClassSpecs, String externalDiscriminatorName, Collection<FieldMap> fieldMaps) {
         this.baseClassSpec = baseClassSpec;
         this.subClassSpecs = subClassSpecs;
         this.fieldMaps = new ArrayList<>(fieldMaps);
 
-        Reflector reflector = ReflectorFactory.getInstance().getReflector();
+        reflector = ReflectorFactory.getInstance().getReflector(baseClassSpec.getEntityClass());
 
         if (reflector.isVersioned(getBaseClass())) {
             this.fieldMaps.addAll(SimpleFieldMap.fieldMap(VERSION_KEY, VERSION_KEY).getFieldMaps());
@@ -96,9 +103,45 @@ public class EntityMapper<E> implements FieldTyper {
 
         buildMapIndexes();
 
+        bindFieldMaps(reflector);
+
         checkUniqueIdentifier();
     }
 
+    /**
+     * Copies a mapper with the copies of its field maps and of its descendant mappers. The mapper was already checked and its classes
+     * reflected, so only the indexes of the copies are built.
+     */
+    private EntityMapper(EntityMapper<E> mapper, Map<EntityMapper<?>, EntityMapper<?>> copies) {
+        this.baseClassSpec = mapper.baseClassSpec;
+        this.subClassSpecs = mapper.subClassSpecs;
+        this.discriminatorSpecified = mapper.discriminatorSpecified;
+        this.reflector = mapper.reflector;
+        this.fieldMaps = new ArrayList<>(mapper.fieldMaps.size());
+
+        for (FieldMap fieldMap : mapper.fieldMaps) {
+            // the field maps merged from the child collections of a merged collection are merged again by the copy of the merged collection
+            if (fieldMap.getParentEntityMapper() != mapper) {
+                continue;
+            }
+            FieldMap copy;
+            if (fieldMap instanceof EntityFieldMap) {
+                EntityMapper<?> entityMapper = ((EntityFieldMap) fieldMap).getEntityMapper();
+                copy = ((EntityFieldMap) fieldMap).copy(entityMapper != null ? entityMapper.copy(copies) : null);
+            } else {
+                copy = fieldMap.copy();
+            }
+            if (fieldMap == mapper.discriminatorFieldMap) {
+                discriminatorFieldMap = (DiscriminatorFieldMap) copy;
+            }
+            this.fieldMaps.add(copy);
+        }
+
+        buildMapIndexes();
+
+        bindFieldMaps(reflector);
+    }
+
     /**
      * Returns a builder for the entity
      *
@@ -124,22 +167,66 @@ public class EntityMapper<E> implements FieldTyper {
         return new EntityMapParser<T>(input, null).parse();
     }
 
+    /**
+     * Returns a parsed EntityMapper, loading the entity classes from a class loader.
+     *
+     * @param input       the ERM specification
+     * @param ermFileName the file from which the ERM specification was loaded (may be null)
+     * @param classLoader the class loader of the entity classes
+     * @return The parsed EntityResourceMap
+     */
+    public static <T> EntityMapper<T> parse(String input, String ermFileName, ClassLoader classLoader) {
+        return new EntityMapParser<T>(input, ermFileName, classLoader).parse();
+    }
+
+    /**
+     * Returns a parsed EntityMapper, resolving the entity maps it imports.
+     *
+     * @param input          the ERM specification
+     * @param ermFileName    the file from which the ERM specification was loaded (may be null)
+     * @param classLoader    the class loader of the entity classes (may be null for the class loader of the parser)
+     * @param importResolver the resolver of the imported entity maps by name, reporting circular imports (see EntityMapParser)
+     * @return The parsed EntityResourceMap
+     */
+    public static <T> EntityMapper<T> parse(String input, String ermFileName, ClassLoader classLoader, Function<String, EntityMapper<?>> importResolver) {
+        return new EntityMapParser<T>(input, ermFileName, classLoader, importResolver).parse();
+    }
+
     public static <T> MapperBuilder entity(EntityClassSpec<T> entityClassSpec) {
         return new MapperBuilder<>(entityClassSpec);
     }
 
     public void merge(EntityMapper other) {
+        checkNotShared();
         for (FieldMap fieldMap : (Collection<FieldMap>) other.fieldMaps) {
             List<FieldMap> fieldMapList = mapByType.computeIfAbsent(fieldMap.getClass(), k -> new ArrayList<>());
             fieldMapList.add(fieldMap);
         }
         fieldMaps.addAll(other.fieldMaps);
         mapFieldTypes.putAll(other.mapFieldTypes);
-        mapExternalToInternalFieldPath.putAll(other.mapExternalToInternalFieldPath);
         mapByInternalFieldName.putAll(other.mapByInternalFieldName);
         mapByExternalFieldName.putAll(other.mapByExternalFieldName);
     }
 
+    /**
+     * Copies this mapper and its descendant mappers, e.g. to use a shared mapper in another mapper, as a mapper is bound to its parent field map.
+     * The copy is not shared, and the copies of a descendant mapper used in several places are the same.
+     *
+     * @return the copy
+     */
+    public EntityMapper<E> copy() {
+        return copy(new IdentityHashMap<>());
+    }
+
+    private EntityMapper<E> copy(Map<EntityMapper<?>, EntityMapper<?>> copies) {
+        EntityMapper<E> copy = (EntityMapper<E>) copies.get(this);
+        if (copy == null) {
+            copy = new EntityMapper<>(this, copies);
+            copies.put(this, copy);
+        }
+        return copy;
+    }
+
     private void checkSubClassMaps() {
         for (FieldMap fieldMap : fieldMaps) {
             if (fieldMap instanceof ComponentMap) {
@@ -184,24 +271,106 @@ public class EntityMapper<E> implements FieldTyper {
         }
     }
 
+    /**
+     * @return the reflector providing the metadata of the mapped classes
+     */
+    public Reflector getReflector() {
+        return reflector;
+    }
+
     public FieldMap getParentFieldMap() {
         return parentFieldMap;
     }
 
     public void setParentFieldMap(FieldMap parentFieldMap) {
+        checkNotShared();
         this.parentFieldMap = parentFieldMap;
     }
 
+    /**
+     * Marks this mapper and its descendant mappers as shared, e.g. by an EntityMapperRegistry. A shared mapper cannot be changed: it cannot be
+     * merged, rebound, or become the child of another mapper, and its field maps cannot be added to or removed.
+     */
+    void share() {
+        share(Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private void share(Set<EntityMapper<?>> sharedMappers) {
+        if (!sharedMappers.add(this) || shared) {
+            return;
+        }
+        for (FieldMap fieldMap : fieldMaps) {
+            if (fieldMap instanceof EntityFieldMap && ((EntityFieldMap) fieldMap).getEntityMapper() != null) {
+                ((EntityFieldMap) fieldMap).getEntityMapper().share(sharedMappers);
+            }
+        }
+        fieldMaps = Collections.unmodifiableCollection(fieldMaps);
+        shared = true;
+    }
+
+    /**
+     * @return true if the mapper is shared, so that it cannot be changed
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    private void checkNotShared() {
+        if (shared) {
+            throw new UnsupportedOperationException(String.format("The mapper of %s is shared and cannot be changed", getBaseClass().getName()));
+        }
+    }
+
+    /**
+     * Binds the field maps of this mapper, and of its direct child mappers whose bindings depend on this mapper, to the reflector
+     */
+    private void bindFieldMaps(Reflector reflector) {
+        for (FieldMap fieldMap : fieldMaps) {
+            fieldMap.bind(reflector);
+            if (fieldMap instanceof EntityFieldMap && ((EntityFieldMap) fieldMap).getEntityMapper() != null) {
+                for (FieldMap childFieldMap : (Collection<FieldMap>) ((EntityFieldMap) fieldMap).getEntityMapper().getFieldMaps()) {
+                    childFieldMap.bind(reflector);
+                }
+            }
+        }
+    }
+
+    /**
+     * Binds all the field maps in this mapper and its descendant mappers to a reflector.
+     * Should be called if a different reflector is registered after the mapper was built.
+     *
+     * @param reflector the reflector providing the metadata
+     * @throws UnsupportedOperationException if the mapper is shared (a mapper of an EntityMapperRegistry is reloaded instead)
+     */
+    public void rebind(Reflector reflector) {
+        checkNotShared();
+        rebind(reflector, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private void rebind(Reflector reflector, Set<EntityMapper<?>> boundMappers) {
+        if (!boundMappers.add(this)) {
+            return;
+        }
+        this.reflector = reflector;
+        bindFieldMaps(reflector);
+        for (FieldMap fieldMap : fieldMaps) {
+            if (fieldMap instanceof EntityFieldMap && ((EntityFieldMap) fieldMap).getEntityMapper() != null) {
+                ((EntityFieldMap) fieldMap).getEntityMapper().rebind(reflector, boundMappers);
+            }
+        }
+    }
+
     private void buildMapIndexes() {
         mapByType = new LinkedHashMap<>();
-        mapByInternalFieldName = new LinkedHashMap<>();
-        mapByExternalFieldName = new LinkedHashMap<>();
-        mapFieldTypes = new HashMap<>();
-        mapExternalToInternalFieldPath = new HashMap<>();
+        mapByInternalFieldName = new PathIndex<>();
+        mapByExternalFieldName = new PathIndex<>();
+        mapFieldTypes = new PathIndex<>();
+        fieldMapIndexes = new IdentityHashMap<>();
 
         // create the fields for the field Maps
         for (FieldMap fieldMap : fieldMaps) {
             fieldMap.setParentEntityMapper(this);
+            fieldMapIndexes.put(fieldMap, fieldMapIndexes.size());
 
             // determine the identifier field map
             if (fieldMap instanceof SimpleFieldMap) {
@@ -217,95 +386,85 @@ public class EntityMapper<E> implements FieldTyper {
             fieldMapList.add(fieldMap);
         }
 
-        buildFieldTypesMap(this);
-        buildExternalToInternalPathMap(this, new String[0], new String[0]);
+        buildFieldTypesMap(mapFieldTypes, this, false);
+        buildPathMaps();
     }
 
     /**
-     * Builds a map of field types for all fields within this mapper and its descendant mappers
+     * Builds the index of field types for all fields within a mapper and its descendant mappers.
+     * The indexes of the descendant mappers are added as they are, except for the mappers of merged collections,
+     * whose index differs from the one they built for themselves (merged field maps are skipped and child collections are not in the path).
      *
+     * @param index  Index to add the field types to, at the path of the mapper
      * @param mapper Mapper to generate the field types
-     * @param path   Array containing the field path
+     * @param merged true if the mapper is the mapper of a merged collection
      */
-    private void buildFieldTypesMap(EntityMapper<?> mapper, String... path) {
-        // build a map with the property descriptors
+    private static void buildFieldTypesMap(PathIndex<Class> index, EntityMapper<?> mapper, boolean merged) {
         if (mapper.getBaseClass() == null) {
             return;
         }
-        PropertyDescriptor[] propertyDescriptors = PropertyUtils.getPropertyDescriptors(mapper.getBaseClass());
-        Map<String, PropertyDescriptor> propertyDescriptorMap = Arrays.stream(propertyDescriptors).collect(Collectors.toMap(FeatureDescriptor::getName, p -> p));
+        Map<String, Class> propertyTypes = ReflectorFactory.getInstance().getPropertyTypeIndex().getPropertyTypes(mapper.getBaseClass());
 
         Collection<FieldMap> fieldMaps = mapper.getFieldMaps();
         for (FieldMap fieldMap : fieldMaps) {
 
             // Skip the merged field maps in a merged collection map
-            if (mapper.getParentFieldMap() instanceof MergedCollectionMap && fieldMap.getParentEntityMapper() != mapper) {
+            if (merged && fieldMap.getParentEntityMapper() != mapper) {
                 continue;
             }
 
-            Stream<String> fieldPathStream = Stream.concat(Stream.of(path), Stream.of(fieldMap.getExternalFieldName()));
-
             if (fieldMap instanceof DiscriminatorFieldMap) {
-                mapFieldTypes.put(fieldPathStream.collect(joining(".")), String.class);
+                index.put(fieldMap.getExternalFieldName(), String.class, null);
             } else if (fieldMap instanceof SimpleFieldMap) {
                 SimpleFieldMap simpleFieldMap = (SimpleFieldMap) fieldMap;
-                PropertyDescriptor propertyDescriptor = propertyDescriptorMap.get(fieldMap.getInternalFieldName());
                 if (!FieldMap.Access.READONLY.equals(simpleFieldMap.getAccess())) {
-                    if (propertyDescriptor == null) {
+                    if (!propertyTypes.containsKey(fieldMap.getInternalFieldName())) {
                         throw new RuntimeException("Field '" + fieldMap.getInternalFieldName() + "' of " + mapper.getBaseClass().getName() + " not found.");
                     }
-                    mapFieldTypes.put(fieldPathStream.collect(joining(".")), propertyDescriptor.getPropertyType());
+                    index.put(fieldMap.getExternalFieldName(), propertyTypes.get(fieldMap.getInternalFieldName()), null);
                 }
             } else if (fieldMap instanceof ComponentMap) {
                 ComponentMap componentMap = (ComponentMap) fieldMap;
                 if (componentMap.isFlattened()) {
-                    buildFieldTypesMap(componentMap.getEntityMapper(), Stream.of(path).toArray(String[]::new));
+                    addFieldTypes(index, componentMap.getEntityMapper());
                 } else {
-                    buildFieldTypesMap(componentMap.getEntityMapper(), fieldPathStream.toArray(String[]::new));
+                    addFieldTypes(index.node(fieldMap.getExternalFieldName()), componentMap.getEntityMapper());
                 }
 
             } else if (fieldMap instanceof CollectionMap) {
                 CollectionMap c = (CollectionMap) fieldMap;
 
-                if (mapper.getParentFieldMap() instanceof MergedCollectionMap) {
+                if (merged) {
                     // Direct access to contents of a merged collection's child collections (skip the child collections in the path)
-                    buildFieldTypesMap(c.getEntityMapper(), path);
+                    addFieldTypes(index, c.getEntityMapper());
                 } else if (c.getPrimitiveType() != null) {
-                    mapFieldTypes.put(fieldPathStream.collect(joining(".")), c.getPrimitiveType());
+                    index.put(fieldMap.getExternalFieldName(), c.getPrimitiveType(), null);
                 } else {
-                    buildFieldTypesMap(c.getEntityMapper(), fieldPathStream.toArray(String[]::new));
+                    addFieldTypes(index.node(fieldMap.getExternalFieldName()), c.getEntityMapper());
                 }
             }
         }
     }
 
+    private static void addFieldTypes(PathIndex<Class> index, EntityMapper<?> mapper) {
+        if (mapper.getParentFieldMap() instanceof MergedCollectionMap) {
+            buildFieldTypesMap(index, mapper, true);
+        } else if (mapper.mapFieldTypes != null) {
+            index.putAll(mapper.mapFieldTypes);
+        } else {
+            buildFieldTypesMap(index, mapper, false);
+        }
+    }
+
     /**
-     * Build the map containing the index to convert an externalFieldPath to an internalFieldPath
-     *
-     * @param mapper
-     * @param externalFieldPath
-     * @param internalFieldPath
+     * Build the indexes of the field maps by external and internal field path, adding the indexes of the descendant mappers
+     * under the field maps that hold them. An external field path is transformed to an internal field path along the external index.
      */
-    private void buildExternalToInternalPathMap(EntityMapper<?> mapper, String[] externalFieldPath, String[] internalFieldPath) {
-        Collection<FieldMap> fieldMaps = mapper.getFieldMaps();
+    private void buildPathMaps() {
         for (FieldMap fieldMap : fieldMaps) {
-            Stream<String> externalFieldPathStream = Stream.concat(Stream.of(externalFieldPath), Stream.of(fieldMap.getExternalFieldName()));
-            Stream<String> internalFieldPathStream = Stream.concat(Stream.of(internalFieldPath), Stream.of(fieldMap.getInternalFieldName()));
-            String externalPath = externalFieldPathStream.collect(joining("."));
-            String internalPath = internalFieldPathStream.collect(joining("."));
-
-            mapExternalToInternalFieldPath.put(externalPath, internalPath);
-
-            // by internal field name
-            mapByInternalFieldName.put(internalPath, fieldMap);
-            // by external field name
-            mapByExternalFieldName.put(externalPath, fieldMap);
-
-            if (fieldMap instanceof EntityFieldMap) {
-                if (((EntityFieldMap) fieldMap).getEntityMapper() != null) {
-                    buildExternalToInternalPathMap(((EntityFieldMap) fieldMap).getEntityMapper(), externalPath.split("\\."), internalPath.split("\\."));
-                }
-            }
+            EntityMapper<?> entityMapper = fieldMap instanceof EntityFieldMap ? ((EntityFieldMap) fieldMap).getEntityMapper() : null;
+            mapByExternalFieldName.put(fieldMap.getExternalFieldName(), fieldMap, entityMapper != null ? entityMapper.mapByExternalFieldName : null);
+            mapByInternalFieldName.put(fieldMap.getInternalFieldName(), fieldMap, entityMapper != null ? entityMapper.mapByInternalFieldName : null);
         }
     }
 
@@ -350,6 +509,7 @@ public class EntityMapper<E> implements FieldTyper {
      * @param preemptedEntityDataMappings Any preempted entity mappings are added to this collection.
      * @param deferredEntityDataMappings  Any deferred entity mappings are added to this collection.
      * @param fieldConverter
+     * @param modified                    Set if the target is modified (may be null). Pass the flag of a ChangeSet to also record which fields changed.
      */
     public void toEntity(DataMap map, E target, Operation operation, Collection<EntityDataMapping> preemptedEntityDataMappings,
                          Collection<EntityDataMapping> deferredEntityDataMappings, FieldConverter fieldConverter, AtomicBoolean modified) {
@@ -361,7 +521,24 @@ public class EntityMapper<E> implements FieldTyper {
             }
         }
 
-        // handle flattened component maps
+        groupFlattenedComponentFields(map);
+
+        for (String externalFieldName : map.keySet()) {
+            FieldMap fieldMap = findByExternalFieldName(externalFieldName);
+            if (fieldMap != null) {
+                try {
+                    getHandler(fieldMap).handleMapToObject(fieldMap, map.get(externalFieldName), target, map, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+                } catch (Exception e) {
+                    throw new EntityMapperException("Error converting the map to an object", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the fields of flattened components in the map into a map for each component
+     */
+    private void groupFlattenedComponentFields(DataMap map) {
         for (ComponentMap componentMap : fieldMaps.stream()
                 .filter(ComponentMap.class::isInstance)
                 .map(ComponentMap.class::cast)
@@ -378,19 +555,181 @@ public class EntityMapper<E> implements FieldTyper {
                 map.put(componentMap.getExternalFieldName(), componentMapData);
             }
         }
+    }
 
-        for (String externalFieldName : map.keySet()) {
+    /**
+     * Apply a JSON merge patch (RFC 7386) to the object target.
+     * Only the fields in the patch are touched and no default values are applied. An explicit null clears a field (or empties a collection).
+     * A component in the patch is merged into the existing component where toEntity would merge it, otherwise it is mapped as by toEntity.
+     * Collections are replaced as a whole, reusing existing items with the same identifier.
+     * Keys may also be dotted paths to fields of components (e.g. address.street).
+     *
+     * @param patch                       map containing the fields to be changed
+     * @param target                      target object that will get the patch applied
+     * @param preemptedEntityDataMappings Any preempted entity mappings are added to this collection.
+     * @param deferredEntityDataMappings  Any deferred entity mappings are added to this collection.
+     * @param fieldConverter
+     * @param modified                    Set if the target is modified (may be null). Pass the flag of a ChangeSet to also record which fields changed.
+     * @throws EntityMapperException if a path in the patch does not address a component field
+     */
+    public void applyPatch(DataMap patch, E target, Collection<EntityDataMapping> preemptedEntityDataMappings,
+                           Collection<EntityDataMapping> deferredEntityDataMappings, FieldConverter fieldConverter, AtomicBoolean modified) {
+        DataMap expandedPatch = new DataMap();
+        patch.forEach((key, value) -> {
+            if (key.indexOf('.') < 0) {
+                expandedPatch.put(key, value);
+            }
+        });
+        patch.forEach((key, value) -> {
+            if (key.indexOf('.') >= 0) {
+                putPatchPath(expandedPatch, key, key, value);
+            }
+        });
+        applyExpandedPatch(expandedPatch, target, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+    }
+
+    private void putPatchPath(DataMap patch, String path, String remainingPath, Object value) {
+        int i = remainingPath.indexOf('.');
+        if (i < 0) {
+            patch.put(remainingPath, value);
+            return;
+        }
+        String fieldName = remainingPath.substring(0, i);
+        FieldMap fieldMap = findByExternalFieldName(fieldName);
+        if (!(fieldMap instanceof ComponentMap)) {
+            throw new EntityMapperException("Patch path " + path + " does not address a component in map for " + getBaseClassAlias());
+        }
+        Object component = patch.get(fieldName);
+        if (component == null) {
+            if (patch.containsKey(fieldName)) {
+                throw new EntityMapperException("Patch path " + path + " conflicts with a null " + fieldName);
+            }
+            component = new DataMap();
+            patch.put(fieldName, component);
+        } else if (!(component instanceof DataMap)) {
+            throw new EntityMapperException("Patch path " + path + " conflicts with the value of " + fieldName);
+        }
+        ((ComponentMap) fieldMap).getEntityMapper().putPatchPath((DataMap) component, path, remainingPath.substring(i + 1), value);
+    }
+
+    private void applyExpandedPatch(DataMap patch, Object target, Collection<EntityDataMapping> preemptedEntityDataMappings,
+                                    Collection<EntityDataMapping> deferredEntityDataMappings, FieldConverter fieldConverter, AtomicBoolean modified) {
+        groupFlattenedComponentFields(patch);
+
+        for (String externalFieldName : patch.keySet()) {
             FieldMap fieldMap = findByExternalFieldName(externalFieldName);
-            if (fieldMap != null) {
-                try {
-                    getHandler(fieldMap).handleMapToObject(fieldMap, map.get(externalFieldName), target, map, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
-                } catch (Exception e) {
-                    throw new EntityMapperException("Error converting the map to an object", e);
+            if (fieldMap == null || getHandler(fieldMap) == null) {
+                continue;
+            }
+            Object value = patch.get(externalFieldName);
+            try {
+                // Merge a component patch into the existing component
+                if (fieldMap instanceof ComponentMap && value instanceof DataMap && fieldMap.operationAllowed(Operation.UPDATE)) {
+                    Object component = getPatchedComponent((ComponentMap) fieldMap, target);
+                    if (component != null) {
+                        ((DataMap) value).setParent(patch);
+                        ((ComponentMap) fieldMap).getEntityMapper().applyExpandedPatch((DataMap) value, component, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+                        continue;
+                    }
                 }
+
+                // A null collection is ignored by toEntity, but clears the collection in a patch
+                if (fieldMap instanceof CollectionMap && value == null) {
+                    value = new ArrayList<>();
+                }
+                getHandler(fieldMap).handleMapToObject(fieldMap, value, target, patch, Operation.UPDATE, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+            } catch (EntityMapperException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new EntityMapperException("Error applying the patch to the object", e);
             }
         }
     }
 
+    /**
+     * Returns the existing component a patch should be merged into, as opposed to being mapped to a new component
+     *
+     * @return the component (the target itself for a subclass component), or null if the component is not merged
+     */
+    private Object getPatchedComponent(ComponentMap componentMap, Object target) throws Exception {
+        if (componentMap.isJoin() || (componentMap.isCascadeUpdate() && componentMap.getEntityMapper().getExternalIdentifierFieldName() != null)) {
+            return null;
+        }
+        if (componentMap.isForSubclass() && !componentMap.isAttribute()) {
+            return componentMap.getEntityMapper().getBaseClass().isInstance(target) ? target : null;
+        }
+        Object component;
+        if (componentMap.isAttribute()) {
+            if (!(target instanceof Attributed)) {
+                return null;
+            }
+            component = ((Attributed) target).getAttribute(componentMap.getInternalFieldName());
+        } else {
+            if (!PropertyUtils.isReadable(target, componentMap.getInternalFieldName())) {
+                return null;
+            }
+            component = PropertyUtils.getProperty(target, componentMap.getInternalFieldName());
+        }
+        // components referenced by identifier are replaced rather than merged (see ComponentMapHandler)
+        if (component != null && !componentMap.isCascadeDelete() && !componentMap.isCascadeUpdate()
+                && StringUtils.isNotBlank(componentMap.getEntityMapper().getInternalIdentifierFieldName())) {
+            return null;
+        }
+        return component;
+    }
+
+    /**
+     * Merge the map to the object target, unless the fingerprints show that it would not change the target.
+     * Maps are only compared for an UPDATE without a field converter, as the fingerprints do not apply the conversions.
+     * See fingerprint(DataMap).
+     *
+     * @param map                         map containing a compatible structure with the mapping definition
+     * @param target                      target object that will get the data merged
+     * @param operation                   CREATE or UPDATE - controls how FINAL or READONLY fields are mapped.
+     * @param preemptedEntityDataMappings Any preempted entity mappings are added to this collection.
+     * @param deferredEntityDataMappings  Any deferred entity mappings are added to this collection.
+     * @param fieldConverter
+     * @param modified                    Set if the target is modified (may be null)
+     * @return false if the merge was skipped
+     */
+    public boolean toEntityIfChanged(DataMap map, E target, Operation operation, Collection<EntityDataMapping> preemptedEntityDataMappings,
+                                     Collection<EntityDataMapping> deferredEntityDataMappings, FieldConverter fieldConverter, AtomicBoolean modified) {
+        if (operation == Operation.UPDATE && fieldConverter == null) {
+            String mapFingerprint = fingerprint(map);
+            if (mapFingerprint != null && mapFingerprint.equals(fingerprint(target))) {
+                return false;
+            }
+        }
+        toEntity(map, target, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+        return true;
+    }
+
+    /**
+     * Computes a stable hash over the fields of the map that an UPDATE would apply.
+     * The fingerprint equals the fingerprint of an entity only if applying the map to the entity would not change it.
+     *
+     * @param map map containing a compatible structure with the mapping definition
+     * @return the fingerprint as a hex string, or null if the map cannot be fingerprinted
+     */
+    public String fingerprint(DataMap map) {
+        return Fingerprinter.fingerprint(this, map);
+    }
+
+    /**
+     * Computes a stable hash over the updatable fields of an entity, which can be compared with the fingerprint of a map
+     * or used as a cache key for the entity state.
+     *
+     * @param entity entity to be fingerprinted
+     * @return the fingerprint as a hex string, or null if the entity cannot be fingerprinted
+     */
+    public String fingerprint(E entity) {
+        try {
+            return Fingerprinter.fingerprint(this, entity);
+        } catch (Exception e) {
+            throw new EntityMapperException("Error computing the fingerprint of " + getBaseClassAlias(), e);
+        }
+    }
+
     /**
      * Transform an entity to a map
      *
@@ -402,6 +741,95 @@ public class EntityMapper<E> implements FieldTyper {
         return toMap(entity, null, context);
     }
 
+    /**
+     * Computes a hash of the entity as it would be mapped by toMap, without building the map.
+     * Suitable as an ETag: the hash changes whenever the mapped form of the entity changes.
+     *
+     * @param entity  entity to be hashed
+     * @param context Session Context, as for toMap
+     * @return the hash as a hex string, or null if the entity holds values that cannot be hashed (the map should be built instead)
+     */
+    public String hash(E entity, SessionContext context) {
+        try {
+            return Fingerprinter.hash(this, entity);
+        } catch (Exception e) {
+            throw new EntityMapperException("Error computing the hash of " + getBaseClassAlias(), e);
+        }
+    }
+
+    /**
+     * Update a map previously produced by toMap after some fields of the entity changed. Only the changed fields are mapped again.
+     * A changed field within a component is mapped within the component map, and a changed field within a collection item
+     * remaps the whole collection.
+     *
+     * @param entity                    entity to be transformed to a map
+     * @param previous                  map previously produced by toMap for the entity (updated in place). If null, the entity is mapped in full.
+     * @param changedInternalFieldNames internal field paths of the changed fields (e.g. title, address.street). Paths that are not mapped are ignored.
+     * @param context                   Session Context which may be used by external map handlers
+     * @return the updated map
+     */
+    public DataMap toMap(E entity, DataMap previous, Collection<String> changedInternalFieldNames, SessionContext context) {
+        if (previous == null) {
+            return toMap(entity, context);
+        }
+
+        String remappedPath = null;
+        for (String internalFieldPath : new TreeSet<>(changedInternalFieldNames)) {
+            // skip the fields within a field already mapped again
+            if (remappedPath != null && internalFieldPath.startsWith(remappedPath + ".")) {
+                continue;
+            }
+            if (findByInternalFieldName(internalFieldPath) == null) {
+                continue;
+            }
+            try {
+                remapFieldPath(entity, previous, internalFieldPath.split("\\."), 0, context);
+            } catch (EntityMapperException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new EntityMapperException("Error converting the field " + internalFieldPath + " to the map", e);
+            }
+            remappedPath = internalFieldPath;
+        }
+        return previous;
+    }
+
+    private void remapFieldPath(Object entityData, DataMap map, String[] internalFieldPath, int index, SessionContext context) throws Exception {
+        FieldMap fieldMap = findByInternalFieldName(internalFieldPath[index]);
+        MapHandler<FieldMap> handler = getHandler(fieldMap);
+        if (handler == null) {
+            return;
+        }
+
+        // descend into a mapped component, otherwise map the whole field again
+        if (index < internalFieldPath.length - 1 && fieldMap instanceof ComponentMap && !((ComponentMap) fieldMap).isForSubclass()
+                && fieldMap.operationAllowed(Operation.READ)) {
+            ComponentMap componentMap = (ComponentMap) fieldMap;
+            Object component = readValue(componentMap, entityData);
+            Object componentMapData = componentMap.isFlattened() ? map : map.get(componentMap.getExternalFieldName());
+            if (component != null && componentMapData instanceof DataMap) {
+                componentMap.getEntityMapper().remapFieldPath(component, (DataMap) componentMapData, internalFieldPath, index + 1, context);
+                return;
+            }
+        }
+
+        removeMappedField(fieldMap, map);
+        handler.handleObjectToMap(fieldMap, entityData, map, context);
+    }
+
+    /**
+     * Removes the keys produced by toMap for a field map
+     */
+    private static void removeMappedField(FieldMap fieldMap, DataMap map) {
+        if (fieldMap instanceof ComponentMap && ((ComponentMap) fieldMap).isFlattened()) {
+            for (FieldMap componentFieldMap : (Collection<FieldMap>) ((ComponentMap) fieldMap).getEntityMapper().getFieldMaps()) {
+                removeMappedField(componentFieldMap, map);
+            }
+        } else {
+            map.remove(fieldMap.getExternalFieldName());
+        }
+    }
+
     /**
      * Transform an entity or subset thereof to a map
      *
@@ -427,6 +855,210 @@ public class EntityMapper<E> implements FieldTyper {
         return map;
     }
 
+    /**
+     * Transform a window of a collection within an entity or subset thereof to a map.
+     * Only the items in the window are mapped. The returned map contains the mapped items under CollectionWindow.ITEMS_KEY
+     * and the size of the whole collection under CollectionWindow.TOTAL_KEY.
+     *
+     * @param entityData     entity or sub-component owning the collection
+     * @param collectionPath Identifies the collection within the entity map
+     * @param window         The window of the collection to be mapped
+     * @param context        Session Context. If it is a CollectionWindowLoader, the window is fetched through it instead of being sliced from the loaded collection.
+     * @return map containing the window
+     * @throws IllegalArgumentException if the collection is not ordered (e.g. a HashSet), or if the item a keyset window follows is not in the collection
+     */
+    public DataMap toMap(Object entityData, String collectionPath, CollectionWindow window, SessionContext context) {
+        FieldMap fieldMap = getFieldMapForSubResource(collectionPath);
+        MapHandler<?> handler = getHandler(fieldMap);
+        if (!(handler instanceof CollectionMapHandler)) {
+            throw new EntityMapperException("Field " + collectionPath + " in map for " + getBaseClassAlias() + " is not a collection map");
+        }
+        try {
+            return ((CollectionMapHandler) handler).handleObjectToWindowedMap((CollectionMap) fieldMap, entityData, window, context);
+        } catch (EntityMapperException | IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EntityMapperException("Error converting the collection window " + window + " to the map", e);
+        }
+    }
+
+    /**
+     * Computes the difference between two versions of an entity as a map containing only the changed fields.
+     * The map is in merge patch form (see applyPatch): removed values are explicit nulls, changed components contain only their changed fields,
+     * and a changed collection lists all of its items - an unchanged item by its identifier alone, a changed item by its identifier and changed fields,
+     * and a new item in full. Collections of items without an identifier are listed in full when they change. Lazy collections are not compared.
+     *
+     * @param oldEntity previous version of the entity (may be null)
+     * @param newEntity current version of the entity
+     * @param context   Session Context which may be used by external map handlers
+     * @return map containing the changes. If there is no previous version, or it is of a different class, the map contains the whole entity.
+     */
+    public DataMap diff(E oldEntity, E newEntity, SessionContext context) {
+        if (newEntity == null) {
+            throw new IllegalArgumentException("New entity cannot be null");
+        }
+        if (oldEntity == null || oldEntity.getClass() != newEntity.getClass()) {
+            return toMap(newEntity, context);
+        }
+        DataMap diff = new DataMap();
+        try {
+            diffInto(oldEntity, newEntity, diff, context);
+        } catch (EntityMapperException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EntityMapperException("Error comparing the objects for " + getBaseClassAlias(), e);
+        }
+        return diff;
+    }
+
+    private void diffInto(Object oldData, Object newData, DataMap diff, SessionContext context) throws Exception {
+        for (FieldMap fieldMap : fieldMaps) {
+            MapHandler<FieldMap> handler = getHandler(fieldMap);
+            if (handler == null || !fieldMap.operationAllowed(Operation.READ)) {
+                continue;
+            }
+            if (fieldMap instanceof ComponentMap) {
+                diffComponent((ComponentMap) fieldMap, oldData, newData, diff, context);
+            } else if (fieldMap instanceof CollectionMap) {
+                diffCollection((CollectionMap) fieldMap, handler, oldData, newData, diff, context);
+            } else if (!valueEquals(readValue(fieldMap, oldData), readValue(fieldMap, newData))) {
+                handler.handleObjectToMap(fieldMap, newData, diff, context);
+                if (!diff.containsKey(fieldMap.getExternalFieldName())) {
+                    diff.put(fieldMap.getExternalFieldName(), null);
+                }
+            }
+        }
+    }
+
+    private void diffComponent(ComponentMap componentMap, Object oldData, Object newData, DataMap diff, SessionContext context) throws Exception {
+        EntityMapper<Object> componentMapper = componentMap.getEntityMapper();
+        Object oldComponent;
+        Object newComponent;
+        if (componentMap.isForSubclass()) {
+            oldComponent = componentMapper.getBaseClass().isInstance(oldData) ? oldData : null;
+            newComponent = componentMapper.getBaseClass().isInstance(newData) ? newData : null;
+        } else {
+            oldComponent = readValue(componentMap, oldData);
+            newComponent = readValue(componentMap, newData);
+        }
+        if (oldComponent == null && newComponent == null) {
+            return;
+        }
+
+        if (newComponent == null) {
+            if (componentMap.isFlattened()) {
+                for (String key : componentMapper.toMap(oldComponent, context).keySet()) {
+                    diff.put(key, null);
+                }
+            } else if (!componentMap.isForSubclass()) {
+                diff.put(componentMap.getExternalFieldName(), null);
+            }
+            return;
+        }
+
+        DataMap componentDiff;
+        String identifierFieldName = componentMapper.getInternalIdentifierFieldName();
+        if (oldComponent == null || (!componentMap.isForSubclass() && identifierFieldName != null
+                && !Objects.equals(PropertyUtils.getProperty(oldComponent, identifierFieldName), PropertyUtils.getProperty(newComponent, identifierFieldName)))) {
+            componentDiff = componentMapper.toMap(newComponent, context);
+        } else {
+            componentDiff = new DataMap();
+            componentMapper.diffInto(oldComponent, newComponent, componentDiff, context);
+            if (componentDiff.isEmpty()) {
+                return;
+            }
+        }
+
+        if (componentMap.isFlattened()) {
+            componentDiff.forEach(diff::put);
+        } else {
+            diff.put(componentMap.getExternalFieldName(), componentDiff);
+        }
+    }
+
+    private void diffCollection(CollectionMap collectionMap, MapHandler<FieldMap> handler, Object oldData, Object newData, DataMap diff, SessionContext context) throws Exception {
+        if (collectionMap.isLazy()) {
+            return;
+        }
+        Collection<?> oldCollection = (Collection<?>) readValue(collectionMap, oldData);
+        Collection<?> newCollection = (Collection<?>) readValue(collectionMap, newData);
+        if (oldCollection == null && newCollection == null) {
+            return;
+        }
+        if (newCollection == null) {
+            diff.put(collectionMap.getExternalFieldName(), null);
+            return;
+        }
+
+        EntityMapper<Object> itemMapper = collectionMap.getEntityMapper();
+        String identifierFieldName = itemMapper != null ? itemMapper.getInternalIdentifierFieldName() : null;
+        if (oldCollection == null || identifierFieldName == null) {
+            // primitives and items without identifier are compared as mapped and listed in full
+            DataMap newMap = new DataMap();
+            handler.handleObjectToMap(collectionMap, newData, newMap, context);
+            if (oldCollection != null) {
+                DataMap oldMap = new DataMap();
+                handler.handleObjectToMap(collectionMap, oldData, oldMap, context);
+                if (Objects.equals(oldMap.get(collectionMap.getExternalFieldName()), newMap.get(collectionMap.getExternalFieldName()))) {
+                    return;
+                }
+            }
+            diff.put(collectionMap.getExternalFieldName(), newMap.get(collectionMap.getExternalFieldName()));
+            return;
+        }
+
+        Map<Object, Object> oldItemsById = new HashMap<>();
+        for (Object oldItem : oldCollection) {
+            if (oldItem != null) {
+                Object id = PropertyUtils.getProperty(oldItem, identifierFieldName);
+                if (id != null) {
+                    oldItemsById.putIfAbsent(id, oldItem);
+                }
+            }
+        }
+
+        // The collection is changed if any item is new or changed, or the identifiers differ in order
+        boolean changed = false;
+        Iterator<?> oldIterator = oldCollection.stream().filter(Objects::nonNull).iterator();
+        List<DataMap> items = new ArrayList<>(newCollection.size());
+        for (Object newItem : newCollection) {
+            if (newItem == null) {
+                continue;
+            }
+            Object id = PropertyUtils.getProperty(newItem, identifierFieldName);
+            changed = changed || !oldIterator.hasNext() || !Objects.equals(PropertyUtils.getProperty(oldIterator.next(), identifierFieldName), id);
+
+            Object oldItem = id != null ? oldItemsById.get(id) : null;
+            if (oldItem == null) {
+                items.add(itemMapper.toMap(newItem, context));
+                changed = true;
+            } else {
+                DataMap itemDiff = new DataMap();
+                itemMapper.diffInto(oldItem, newItem, itemDiff, context);
+                changed = changed || !itemDiff.isEmpty();
+                itemDiff.put(itemMapper.getExternalIdentifierFieldName(), id);
+                items.add(itemDiff);
+            }
+        }
+        if (changed || oldIterator.hasNext()) {
+            diff.put(collectionMap.getExternalFieldName(), items);
+        }
+    }
+
+    private static Object readValue(FieldMap fieldMap, Object source) throws Exception {
+        if (fieldMap.isAttribute()) {
+            return source instanceof Attributed ? ((Attributed) source).getAttribute(fieldMap.getInternalFieldName()) : null;
+        }
+        return PropertyUtils.isReadable(source, fieldMap.getInternalFieldName()) ? PropertyUtils.getProperty(source, fieldMap.getInternalFieldName()) : null;
+    }
+
+    private static boolean valueEquals(Object a, Object b) {
+        if (a instanceof BigDecimal && b instanceof BigDecimal) {
+            return ((BigDecimal) a).compareTo((BigDecimal) b) == 0;
+        }
+        return Objects.deepEquals(a, b);
+    }
+
     /**
      * @param subResourcePath A period-separated path to the sub-resource
      * @return an EntityMapper for a subResourcePath
@@ -652,6 +1284,14 @@ public class EntityMapper<E> implements FieldTyper {
         return baseClassSpec.isSuppressLocalisation();
     }
 
+    EntityClassSpec<E> getBaseClassSpec() {
+        return baseClassSpec;
+    }
+
+    Collection<EntityClassSpec<E>> getSubClassSpecs() {
+        return subClassSpecs.values();
+    }
+
     public Class<E> getDiscriminatedSubClass(String externalDiscriminatorValue) {
         return subClassSpecs.get(externalDiscriminatorValue).entityClass;
     }
@@ -664,6 +1304,15 @@ public class EntityMapper<E> implements FieldTyper {
         return fieldMaps;
     }
 
+    /**
+     * @param fieldMap field map of this mapper
+     * @return the position of the field map in getFieldMaps(), or -1 if it is not a field map of this mapper
+     */
+    public int indexOfFieldMap(FieldMap fieldMap) {
+        Integer index = fieldMapIndexes.get(fieldMap);
+        return index != null ? index : -1;
+    }
+
     /**
      * Get a FieldMap by internalFieldName
      *
@@ -696,7 +1345,7 @@ public class EntityMapper<E> implements FieldTyper {
     }
 
     public String findInternalFieldPath(String externalFieldPath) {
-        return mapExternalToInternalFieldPath.get(externalFieldPath);
+        return mapByExternalFieldName.mapPath(externalFieldPath, FieldMap::getInternalFieldName);
     }
 
     @Override
@@ -809,7 +1458,7 @@ public class EntityMapper<E> implements FieldTyper {
          * @return the discriminator value
          */
         public String getExternalDiscriminatorValue() {
-            String hibernateDiscriminatorValue = ReflectorFactory.getInstance().getReflector().getDiscriminatorValue(entityClass);
+            String hibernateDiscriminatorValue = ReflectorFactory.getInstance().getReflector(entityClass).getDiscriminatorValue(entityClass);
             return hibernateDiscriminatorValue == null || hibernateDiscriminatorValue.equals(entityClass.getName()) ? getAlias() : hibernateDiscriminatorValue;
         }
     }
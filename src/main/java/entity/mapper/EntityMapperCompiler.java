@@ -0,0 +1,521 @@
+package entity.mapper;
+
+import entity.mapper.fieldmaps.*;
+import entity.mapper.metadata.MetaDataCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles EntityMappers to a binary form that is loaded without parsing the entity map.
+ * <p>
+ * The compiled form holds the field maps of the mapper tree as they were built from the entity map, with the reflected maps expanded and
+ * the class names resolved, so loading it skips the parser, the reflection of the reflected maps and the lookups of the aliases.
+ * The mappers are then built from the compiled field maps as from parsed ones: EntityMapper adds the version and discriminator field maps,
+ * builds the path indexes and binds the field maps, querying the reflector of each class.
+ * <p>
+ * The compiled form records a hash of the entity map it was compiled from, and a hash of the bytecode of each class it references,
+ * so a compiled mapper is ignored, and the entity map parsed instead, once the entity map or one of the classes changed. Loading reads
+ * the bytecode of the classes that were not hashed yet (see MetaDataCache.classHash()): a compiled file is written before its classes
+ * are packaged, so the time or location of their class files cannot tell whether they changed.
+ * <p>
+ * Only the field maps created by EntityMapParser can be compiled. The entity maps importing other entity maps are not compiled, as their compiled
+ * form would not follow the changes of the imported maps. The compiled files are written at build time by main(), e.g.
+ * {@code java entity.mapper.EntityMapperCompiler src/main/maps target/classes/maps}.
+ */
+public final class EntityMapperCompiler {
+    private static final Logger LOGGER = Logger.getLogger(EntityMapperCompiler.class.getName());
+
+    public static final String FILE_EXTENSION = ".emc";
+
+    private static final int MAGIC = 0x454d4346;
+    private static final int VERSION = 1;
+
+    private static final byte SIMPLE = 1;
+    private static final byte COLLECTION = 2;
+    private static final byte MERGED_COLLECTION = 3;
+    private static final byte COMPONENT = 4;
+    private static final byte SUBCLASS_COMPONENT = 5;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte INTEGER_VALUE = 2;
+    private static final byte DECIMAL_VALUE = 3;
+    private static final byte BOOLEAN_VALUE = 4;
+
+    private EntityMapperCompiler() {
+    }
+
+    /**
+     * Compiles a mapper
+     *
+     * @param mapper the mapper, as parsed from the entity map
+     * @param input  the entity map the mapper was parsed from
+     * @return the compiled mapper
+     * @throws EntityMapperException if the entity map imports other entity maps, or if the mapper contains field maps that cannot be compiled
+     */
+    public static byte[] compile(EntityMapper<?> mapper, String input) {
+        if (EntityMapParser.hasImports(input)) {
+            throw new EntityMapperException("Entity maps importing other entity maps cannot be compiled");
+        }
+        try {
+            // the mapper is written first, to collect the classes listed before it
+            Output body = new Output();
+            writeMapper(body, mapper);
+
+            Output compiled = new Output();
+            compiled.out.writeInt(MAGIC);
+            compiled.out.writeInt(VERSION);
+            compiled.out.writeUTF(EntityMapperRegistry.contentHash(input));
+            compiled.out.writeInt(body.classes.size());
+            for (Class clazz : body.classes) {
+                compiled.out.writeUTF(clazz.getName());
+                compiled.out.writeLong(MetaDataCache.classHash(clazz));
+            }
+            body.out.flush();
+            body.bytes.writeTo(compiled.out);
+            compiled.out.flush();
+            return compiled.bytes.toByteArray();
+        } catch (IOException e) {
+            // not thrown by the in-memory streams
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Parses an entity map file and writes the compiled mapper
+     *
+     * @param sourceFile   the entity map file
+     * @param compiledFile the compiled file
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void compile(Path sourceFile, Path compiledFile) throws IOException {
+        String input = new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8);
+        if (EntityMapParser.hasImports(input)) {
+            throw new EntityMapperException("Entity map " + sourceFile + " imports other entity maps and cannot be compiled");
+        }
+        byte[] compiled = compile(EntityMapper.parse(input, sourceFile.getFileName().toString()), input);
+        Path directory = compiledFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Files.write(compiledFile, compiled);
+    }
+
+    /**
+     * Builds a compiled mapper, or parses the entity map if the compiled mapper is stale or unreadable
+     *
+     * @param compiled    the compiled mapper
+     * @param input       the entity map the mapper was compiled from
+     * @param ermFileName the file from which the entity map was loaded (may be null)
+     * @return the mapper
+     * @throws EntityMapParserException if the entity map is parsed and cannot be parsed
+     */
+    public static <T> EntityMapper<T> load(byte[] compiled, String input, String ermFileName) {
+        return load(compiled, input, ermFileName, null);
+    }
+
+    /**
+     * Builds a compiled mapper, or parses the entity map if the compiled mapper is stale or unreadable
+     *
+     * @param compiled       the compiled mapper
+     * @param input          the entity map the mapper was compiled from
+     * @param ermFileName    the file from which the entity map was loaded (may be null)
+     * @param importResolver the resolver of the entity maps imported by the entity map if it is parsed (may be null)
+     * @return the mapper
+     * @throws EntityMapParserException if the entity map is parsed and cannot be parsed
+     */
+    public static <T> EntityMapper<T> load(byte[] compiled, String input, String ermFileName, Function<String, EntityMapper<?>> importResolver) {
+        return load(compiled, input, ermFileName, null, importResolver);
+    }
+
+    /**
+     * Builds a compiled mapper, or parses the entity map if the compiled mapper is stale or unreadable
+     *
+     * @param compiled       the compiled mapper
+     * @param input          the entity map the mapper was compiled from
+     * @param ermFileName    the file from which the entity map was loaded (may be null)
+     * @param classLoader    the class loader of the entity classes (may be null for the class loader of the parser)
+     * @param importResolver the resolver of the entity maps imported by the entity map if it is parsed (may be null)
+     * @return the mapper
+     * @throws EntityMapParserException if the entity map is parsed and cannot be parsed
+     */
+    public static <T> EntityMapper<T> load(byte[] compiled, String input, String ermFileName, ClassLoader classLoader,
+                                           Function<String, EntityMapper<?>> importResolver) {
+        try {
+            EntityMapper<T> mapper = read(compiled, input, classLoader != null ? classLoader : EntityMapParser.class.getClassLoader());
+            if (mapper != null) {
+                return mapper;
+            }
+            LOGGER.fine("Compiled entity map " + ermFileName + " is stale, the entity map is parsed");
+        } catch (IOException | EntityMapperException | IllegalArgumentException | LinkageError e) {
+            // unreadable, or cannot be built any more: the entity map is parsed, reporting the errors of the entity map
+            LOGGER.log(Level.WARNING, "Compiled entity map " + ermFileName + " cannot be loaded, the entity map is parsed", e);
+        }
+        return EntityMapper.parse(input, ermFileName, classLoader, importResolver);
+    }
+
+    /**
+     * Builds the mapper of a compiled file, or parses the entity map if the file does not exist or is stale
+     *
+     * @param compiledFile the compiled file
+     * @param input        the entity map the mapper was compiled from
+     * @param ermFileName  the file from which the entity map was loaded (may be null)
+     * @return the mapper
+     */
+    public static <T> EntityMapper<T> load(Path compiledFile, String input, String ermFileName) {
+        byte[] compiled;
+        try {
+            compiled = Files.readAllBytes(compiledFile);
+        } catch (NoSuchFileException e) {
+            // not compiled
+            return EntityMapper.parse(input, ermFileName);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Compiled entity map " + compiledFile + " cannot be read, the entity map is parsed", e);
+            return EntityMapper.parse(input, ermFileName);
+        }
+        return load(compiled, input, ermFileName);
+    }
+
+    /**
+     * @param fileName name of an entity map file
+     * @return the name of the compiled file of the entity map
+     */
+    public static String compiledFileName(String fileName) {
+        String name = EntityMapperRegistry.fileName(fileName);
+        return name.substring(0, name.length() - EntityMapperRegistry.FILE_EXTENSION.length()) + FILE_EXTENSION;
+    }
+
+    /**
+     * Compiles an entity map file, or the entity map files of a directory and its subdirectories
+     *
+     * @param args the entity map file or directory, and the directory of the compiled files
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: EntityMapperCompiler <entity map file or directory> <output directory>");
+            System.exit(2);
+        }
+        Path source = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+        if (Files.isDirectory(source)) {
+            List<Path> sourceFiles;
+            try (Stream<Path> files = Files.walk(source)) {
+                sourceFiles = files.filter(file -> file.toString().endsWith(EntityMapperRegistry.FILE_EXTENSION) && Files.isRegularFile(file))
+                        .collect(Collectors.toList());
+            }
+            for (Path sourceFile : sourceFiles) {
+                if (EntityMapParser.hasImports(new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8))) {
+                    System.out.println("Skipped " + sourceFile + ", it imports other entity maps");
+                    continue;
+                }
+                compile(sourceFile, output.resolve(compiledFileName(source.relativize(sourceFile).toString())));
+            }
+        } else {
+            compile(source, output.resolve(compiledFileName(source.getFileName().toString())));
+        }
+    }
+
+    private static <T> EntityMapper<T> read(byte[] compiled, String input, ClassLoader classLoader) throws IOException {
+        Input in = new Input(compiled);
+        if (in.in.readInt() != MAGIC || in.in.readInt() != VERSION || !EntityMapperRegistry.contentHash(input).equals(in.in.readUTF())) {
+            return null;
+        }
+        int classCount = in.in.readInt();
+        for (int i = 0; i < classCount; i++) {
+            String className = in.in.readUTF();
+            long hash = in.in.readLong();
+            // the class loader the entity map would be parsed with, so that the classes are the classes parsed if the compiled mapper is stale
+            Class clazz = ClassResolver.resolve(className, classLoader);
+            if (clazz == null) {
+                return null;
+            }
+            long currentHash = MetaDataCache.classHash(clazz);
+            if (currentHash == 0 || currentHash != hash) {
+                return null;
+            }
+            in.classes.add(clazz);
+        }
+        return readMapper(in);
+    }
+
+    /**
+     * @return the field maps of a mapper, without the field maps added by EntityMapper
+     */
+    private static List<FieldMap> declaredFieldMaps(EntityMapper<?> mapper) {
+        List<FieldMap> fieldMaps = new ArrayList<>(mapper.getFieldMaps());
+        int end = fieldMaps.size();
+        // the discriminator is added after the version, and the field maps of merged collections after the discriminator
+        if (mapper.getDiscriminatorFieldMap() != null) {
+            for (end = 0; fieldMaps.get(end) != mapper.getDiscriminatorFieldMap(); end++) {
+            }
+        }
+        if (mapper.getReflector().isVersioned(mapper.getBaseClass())) {
+            end--;
+        }
+        return fieldMaps.subList(0, end);
+    }
+
+    private static void writeMapper(Output out, EntityMapper<?> mapper) throws IOException {
+        boolean merge = mapper.getBaseClassSpec() == EntityMapper.EntityClassSpec.MERGE;
+        out.out.writeBoolean(merge);
+        if (!merge) {
+            writeClassSpec(out, mapper.getBaseClassSpec());
+        }
+        out.out.writeInt(mapper.getSubClassSpecs().size());
+        for (EntityMapper.EntityClassSpec<?> subClassSpec : mapper.getSubClassSpecs()) {
+            writeClassSpec(out, subClassSpec);
+        }
+        out.writeString(mapper.isDiscriminatorSpecified() ? mapper.getDiscriminatorFieldMap().getExternalFieldName() : null);
+
+        List<FieldMap> fieldMaps = declaredFieldMaps(mapper);
+        out.out.writeInt(fieldMaps.size());
+        for (FieldMap fieldMap : fieldMaps) {
+            writeFieldMap(out, fieldMap);
+        }
+    }
+
+    private static EntityMapper readMapper(Input in) throws IOException {
+        EntityMapper.MapperBuilder mapperBuilder = EntityMapper.entity(in.in.readBoolean() ? EntityMapper.EntityClassSpec.MERGE : readClassSpec(in));
+        int subClassCount = in.in.readInt();
+        for (int i = 0; i < subClassCount; i++) {
+            mapperBuilder.subClass(readClassSpec(in));
+        }
+        String externalDiscriminatorName = in.readString();
+        if (externalDiscriminatorName != null) {
+            mapperBuilder.discriminateBy(externalDiscriminatorName);
+        }
+
+        int fieldMapCount = in.in.readInt();
+        for (int i = 0; i < fieldMapCount; i++) {
+            mapperBuilder.map(readFieldMap(in));
+        }
+        return mapperBuilder.build();
+    }
+
+    private static void writeClassSpec(Output out, EntityMapper.EntityClassSpec<?> classSpec) throws IOException {
+        out.writeClass(classSpec.getEntityClass());
+        out.out.writeUTF(classSpec.getAlias());
+        out.out.writeBoolean(classSpec.isSuppressLocalisation());
+    }
+
+    private static EntityMapper.EntityClassSpec readClassSpec(Input in) throws IOException {
+        return new EntityMapper.EntityClassSpec<>(in.readClass(), in.in.readUTF(), in.in.readBoolean());
+    }
+
+    private static void writeFieldMap(Output out, FieldMap fieldMap) throws IOException {
+        // the exact classes, as the subclasses of the field maps are built differently
+        if (fieldMap.getClass() == SimpleFieldMap.class) {
+            SimpleFieldMap simpleFieldMap = (SimpleFieldMap) fieldMap;
+            out.out.writeByte(SIMPLE);
+            writeFieldMapProperties(out, fieldMap);
+            out.out.writeBoolean(simpleFieldMap.isIdentifier());
+            out.out.writeBoolean(simpleFieldMap.isEntityName());
+            writeValue(out, fieldMap, simpleFieldMap.getDefaultValue());
+        } else if (fieldMap.getClass() == CollectionMap.class) {
+            CollectionMap collectionMap = (CollectionMap) fieldMap;
+            out.out.writeByte(COLLECTION);
+            writeFieldMapProperties(out, fieldMap);
+            out.out.writeByte(collectionMap.getCollectionMode().ordinal());
+            out.writeClass(collectionMap.getPrimitiveType());
+            writeEntityFieldMapProperties(out, collectionMap);
+        } else if (fieldMap.getClass() == MergedCollectionMap.class) {
+            MergedCollectionMap mergedCollectionMap = (MergedCollectionMap) fieldMap;
+            out.out.writeByte(MERGED_COLLECTION);
+            writeFieldMapProperties(out, fieldMap);
+            out.out.writeByte(mergedCollectionMap.getCollectionMode().ordinal());
+            out.writeString(mergedCollectionMap.getIndexedByFieldName());
+            writeMapper(out, mergedCollectionMap.getEntityMapper());
+        } else if (fieldMap.getClass() == ComponentMap.class) {
+            ComponentMap componentMap = (ComponentMap) fieldMap;
+            out.out.writeByte(componentMap.isForSubclass() ? SUBCLASS_COMPONENT : COMPONENT);
+            writeFieldMapProperties(out, fieldMap);
+            out.out.writeBoolean(componentMap.isOuterJoin());
+            out.out.writeBoolean(componentMap.isFlattened());
+            writeEntityFieldMapProperties(out, componentMap);
+        } else {
+            throw new EntityMapperException(String.format("Field map %s of %s cannot be compiled", fieldMap.getExternalPath(), fieldMap.getClass().getName()));
+        }
+    }
+
+    private static FieldMapProvider readFieldMap(Input in) throws IOException {
+        byte type = in.in.readByte();
+        String internalFieldName = in.readString();
+        String externalFieldName = in.readString();
+        String pluginName = in.readString();
+        boolean isAttribute = in.in.readBoolean();
+        FieldMap.Access access = FieldMap.Access.values()[in.in.readByte()];
+        boolean exclusive = in.in.readBoolean();
+        switch (type) {
+            case SIMPLE:
+                boolean identifier = in.in.readBoolean();
+                boolean entityName = in.in.readBoolean();
+                return SimpleFieldMap.fieldMap(internalFieldName, externalFieldName, pluginName, isAttribute, identifier, entityName, access, exclusive, readValue(in));
+            case COLLECTION: {
+                CollectionMap.Mode collectionMode = CollectionMap.Mode.values()[in.in.readByte()];
+                Class primitiveType = in.readClass();
+                String foreignKey = in.readString();
+                String parentKey = in.readString();
+                EntityFieldMap.Cascade cascade = readCascade(in);
+                EntityMapper entityMapper = in.in.readBoolean() ? readMapper(in) : null;
+                return CollectionMap.collection(internalFieldName, externalFieldName, pluginName, isAttribute, collectionMode, access, exclusive,
+                        entityMapper, primitiveType, foreignKey, parentKey, cascade);
+            }
+            case MERGED_COLLECTION: {
+                CollectionMap.Mode collectionMode = CollectionMap.Mode.values()[in.in.readByte()];
+                String indexedByFieldName = in.readString();
+                return MergedCollectionMap.mergedCollection(externalFieldName, collectionMode, access, exclusive, indexedByFieldName, readMapper(in));
+            }
+            case COMPONENT:
+            case SUBCLASS_COMPONENT: {
+                boolean outerJoin = in.in.readBoolean();
+                boolean flattened = in.in.readBoolean();
+                String foreignKey = in.readString();
+                String parentKey = in.readString();
+                EntityFieldMap.Cascade cascade = readCascade(in);
+                EntityMapper entityMapper = in.in.readBoolean() ? readMapper(in) : null;
+                if (type == SUBCLASS_COMPONENT) {
+                    return ComponentMap.subclassComponent(internalFieldName, externalFieldName, pluginName, isAttribute, entityMapper, access, exclusive);
+                }
+                return ComponentMap.component(internalFieldName, externalFieldName, pluginName, isAttribute, entityMapper, access, exclusive, outerJoin,
+                        flattened, foreignKey, parentKey, cascade);
+            }
+            default:
+                throw new IOException("Unknown compiled field map type " + type);
+        }
+    }
+
+    private static void writeFieldMapProperties(Output out, FieldMap fieldMap) throws IOException {
+        out.writeString(fieldMap.getInternalFieldName());
+        out.writeString(fieldMap.getExternalFieldName());
+        out.writeString(fieldMap.getPluginName());
+        out.out.writeBoolean(fieldMap.isAttribute());
+        out.out.writeByte(fieldMap.getAccess().ordinal());
+        // the declared exclusivity, SimpleFieldMap.isExclusive() also reports the implicit exclusivity of identifiers
+        out.out.writeBoolean(fieldMap instanceof SimpleFieldMap ? ((SimpleFieldMap) fieldMap).isDeclaredExclusive() : fieldMap.isExclusive());
+    }
+
+    private static void writeEntityFieldMapProperties(Output out, EntityFieldMap entityFieldMap) throws IOException {
+        out.writeString(entityFieldMap.getForeignKey());
+        out.writeString(entityFieldMap.getParentKey());
+        EntityFieldMap.Cascade cascade = null;
+        if (entityFieldMap.isCascadeUpdate() && entityFieldMap.isCascadeDelete()) {
+            cascade = EntityFieldMap.Cascade.ALL;
+        } else if (entityFieldMap.isCascadeUpdate()) {
+            cascade = EntityFieldMap.Cascade.UPDATE;
+        } else if (entityFieldMap.isCascadeDelete()) {
+            cascade = EntityFieldMap.Cascade.DELETE;
+        }
+        out.out.writeByte(cascade == null ? -1 : cascade.ordinal());
+        out.out.writeBoolean(entityFieldMap.getEntityMapper() != null);
+        if (entityFieldMap.getEntityMapper() != null) {
+            writeMapper(out, entityFieldMap.getEntityMapper());
+        }
+    }
+
+    private static EntityFieldMap.Cascade readCascade(Input in) throws IOException {
+        byte cascade = in.in.readByte();
+        return cascade < 0 ? null : EntityFieldMap.Cascade.values()[cascade];
+    }
+
+    private static void writeValue(Output out, FieldMap fieldMap, Object value) throws IOException {
+        if (value == null) {
+            out.out.writeByte(NULL_VALUE);
+        } else if (value instanceof String) {
+            out.out.writeByte(STRING_VALUE);
+            out.out.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            out.out.writeByte(INTEGER_VALUE);
+            out.out.writeInt((Integer) value);
+        } else if (value instanceof BigDecimal) {
+            out.out.writeByte(DECIMAL_VALUE);
+            out.out.writeUTF(value.toString());
+        } else if (value instanceof Boolean) {
+            out.out.writeByte(BOOLEAN_VALUE);
+            out.out.writeBoolean((Boolean) value);
+        } else {
+            throw new EntityMapperException(String.format("Default value of %s of type %s cannot be compiled", fieldMap.getExternalPath(), value.getClass().getName()));
+        }
+    }
+
+    private static Object readValue(Input in) throws IOException {
+        byte type = in.in.readByte();
+        switch (type) {
+            case NULL_VALUE:
+                return null;
+            case STRING_VALUE:
+                return in.in.readUTF();
+            case INTEGER_VALUE:
+                return in.in.readInt();
+            case DECIMAL_VALUE:
+                return new BigDecimal(in.in.readUTF());
+            case BOOLEAN_VALUE:
+                return in.in.readBoolean();
+            default:
+                throw new IOException("Unknown compiled value type " + type);
+        }
+    }
+
+    private static class Output {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        // classes referenced by the compiled mapper, by index
+        private final Map<Class, Integer> classIndexes = new HashMap<>();
+        private final List<Class> classes = new ArrayList<>();
+
+        void writeString(String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        void writeClass(Class clazz) throws IOException {
+            if (clazz == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer index = classIndexes.get(clazz);
+            if (index == null) {
+                index = classes.size();
+                classIndexes.put(clazz, index);
+                classes.add(clazz);
+            }
+            out.writeInt(index);
+        }
+    }
+
+    private static class Input {
+        private final DataInputStream in;
+        private final List<Class> classes = new ArrayList<>();
+
+        Input(byte[] compiled) {
+            in = new DataInputStream(new ByteArrayInputStream(compiled));
+        }
+
+        String readString() throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+
+        Class readClass() throws IOException {
+            int index = in.readInt();
+            if (index >= classes.size()) {
+                throw new IOException("Unknown compiled class " + index);
+            }
+            return index < 0 ? null : classes.get(index);
+        }
+    }
+}
@@ -0,0 +1,623 @@
+package entity.mapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Registry of EntityMappers parsed from entity map (.em) files, loaded by name on first use.
+ * <p>
+ * Concurrent first loads of a name wait for a single parse. The parsed mappers are also cached by a hash of the file content,
+ * so files with the same content (e.g. a file reloaded unchanged) share a mapper. A load that fails is not cached, and is retried on the next use.
+ * The mappers are shared, so they cannot be changed once loaded (see EntityMapper.isShared()).
+ * <p>
+ * A mapper is built from the compiled entity map (see EntityMapperCompiler) when the source provides one that is up to date.
+ * <p>
+ * The entity maps imported by a file (see EntityMapParser) are loaded from the registry by name, so an entity map imported by several files is loaded once,
+ * but each use of it gets its own copy of its mapper. When a file is reloaded or invalidated, so are the files importing it.
+ * The mappers of files with imports are not cached by content, as the same content gives another mapper once an imported file changed.
+ * Circular imports are reported, also when the files of the cycle are loaded by different threads.
+ */
+public class EntityMapperRegistry {
+    public static final String FILE_EXTENSION = ".em";
+
+    private final Source source;
+    private final ConcurrentMap<String, CompletableFuture<EntityMapper<?>>> mappersByName = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, EntityMapper<?>> mappersByContentHash = new ConcurrentHashMap<>();
+    // files each file being loaded waits for, guarded by itself, to report circular imports instead of waiting forever
+    private final Map<String, List<String>> waitingFor = new HashMap<>();
+    // files imported by each loaded file
+    private final ConcurrentMap<String, Set<String>> importsByName = new ConcurrentHashMap<>();
+
+    public EntityMapperRegistry(Source source) {
+        if (source == null) {
+            throw new IllegalArgumentException("source is required");
+        }
+        this.source = source;
+    }
+
+    /**
+     * Returns the mapper of an entity map file, loading it if it was not loaded yet
+     *
+     * @param name name of the file, relative to the source, with or without the .em extension
+     * @return the mapper
+     * @throws EntityMapperException    if the file is not found or cannot be read
+     * @throws EntityMapParserException if the file cannot be parsed
+     */
+    public <T> EntityMapper<T> get(String name) {
+        return (EntityMapper<T>) getOrLoad(fileName(name));
+    }
+
+    /**
+     * Returns the mapper of a file imported by a file being loaded, loading it if it was not loaded yet
+     *
+     * @param importer the load of the importing file
+     * @param name     name of the imported file
+     * @throws EntityMapperException if the import is circular, or as get()
+     */
+    private EntityMapper<?> getImport(Load importer, String name) {
+        String fileName = fileName(name);
+        importer.imports.add(fileName);
+
+        // the importer waits for the file, whether it is loaded by this thread or by another one
+        startWaiting(importer.fileName, fileName);
+        try {
+            return getOrLoad(fileName);
+        } finally {
+            stopWaiting(importer.fileName, fileName);
+        }
+    }
+
+    private EntityMapper<?> getOrLoad(String fileName) {
+        CompletableFuture<EntityMapper<?>> future = mappersByName.get(fileName);
+        if (future == null) {
+            CompletableFuture<EntityMapper<?>> newFuture = new CompletableFuture<>();
+            future = mappersByName.putIfAbsent(fileName, newFuture);
+            if (future == null) {
+                future = newFuture;
+                try {
+                    newFuture.complete(load(fileName, false));
+                } catch (RuntimeException | Error e) {
+                    mappersByName.remove(fileName, newFuture);
+                    newFuture.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new EntityMapperException("Error loading entity map " + fileName, e.getCause());
+        }
+    }
+
+    /**
+     * Loads all the entity map files of the source in parallel on the common fork/join pool, e.g. at startup
+     *
+     * @return the mappers by file name
+     * @throws EntityMapperException if some files cannot be loaded (see loadAll(Executor))
+     */
+    public Map<String, EntityMapper<?>> loadAll() {
+        return loadAll(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads all the entity map files of the source in parallel, e.g. at startup.
+     * <p>
+     * Each file is loaded as by get(), so the files loaded already are not loaded again. The files are all loaded before the errors are reported,
+     * and the files that could be loaded stay loaded.
+     *
+     * @param executor executor loading the files
+     * @return the mappers by file name
+     * @throws EntityMapperException if the files cannot be listed, or if some files cannot be loaded, with the error of each file as a suppressed exception
+     */
+    public Map<String, EntityMapper<?>> loadAll(Executor executor) {
+        List<String> fileNames;
+        try {
+            fileNames = source.list();
+        } catch (IOException e) {
+            throw new EntityMapperException("Error listing the entity maps", e);
+        }
+
+        Map<String, CompletableFuture<EntityMapper<?>>> futures = new LinkedHashMap<>();
+        for (String fileName : fileNames) {
+            futures.put(fileName, CompletableFuture.supplyAsync(() -> get(fileName), executor));
+        }
+
+        Map<String, EntityMapper<?>> mappers = new LinkedHashMap<>();
+        Map<String, Throwable> errors = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<EntityMapper<?>>> future : futures.entrySet()) {
+            try {
+                mappers.put(future.getKey(), future.getValue().join());
+            } catch (CompletionException e) {
+                errors.put(future.getKey(), e.getCause());
+            }
+        }
+        if (!errors.isEmpty()) {
+            EntityMapperException exception = new EntityMapperException(String.format("Error loading %d of %d entity maps: %s",
+                    errors.size(), fileNames.size(), String.join(", ", errors.keySet())));
+            errors.values().forEach(exception::addSuppressed);
+            throw exception;
+        }
+        return mappers;
+    }
+
+    /**
+     * Loads a file again, and replaces its mapper once the new mapper is built (see EntityMapperWatcher).
+     * A new mapper is built even if the content of the file did not change, e.g. when only its compiled file changed.
+     * The callers that got the previous mapper keep using it. If the file cannot be loaded, the previous mapper is kept.
+     * <p>
+     * The loaded files importing the file, directly or through other files, are then reloaded as by reload(Collection).
+     *
+     * @param name name of the file
+     * @return the new mapper
+     * @throws EntityMapperException    if the file is not found or cannot be read, or if some files importing it cannot be reloaded
+     * @throws EntityMapParserException if the file cannot be parsed
+     */
+    public <T> EntityMapper<T> reload(String name) {
+        String fileName = fileName(name);
+        EntityMapper<?> mapper = replace(fileName);
+        reloadAll(importersOf(Collections.singleton(fileName)));
+        return (EntityMapper<T>) mapper;
+    }
+
+    /**
+     * Loads several files again as by reload(String), e.g. the files changed together, with the loaded files importing them.
+     * <p>
+     * A file is reloaded after the files it imports, so a file importing several changed files is reloaded once. The files are all reloaded
+     * before the errors are reported, and a file that cannot be reloaded keeps its previous mapper.
+     *
+     * @param names names of the files
+     * @throws EntityMapperException if some files cannot be reloaded, with the error of each file as a suppressed exception
+     */
+    public void reload(Collection<String> names) {
+        Set<String> fileNames = names.stream().map(EntityMapperRegistry::fileName).collect(Collectors.toCollection(LinkedHashSet::new));
+        fileNames.addAll(importersOf(fileNames));
+        reloadAll(fileNames);
+    }
+
+    /**
+     * @param name name of the file
+     * @return true if the mapper of the file was loaded, or is being loaded
+     */
+    public boolean isLoaded(String name) {
+        return mappersByName.containsKey(fileName(name));
+    }
+
+    /**
+     * Discards the mapper of a file and of the files importing it, so that they are loaded again on the next use
+     *
+     * @param name name of the file
+     */
+    public void invalidate(String name) {
+        String fileName = fileName(name);
+        for (String importer : importersOf(Collections.singleton(fileName))) {
+            forget(loadedMapper(mappersByName.remove(importer)));
+        }
+        forget(loadedMapper(mappersByName.remove(fileName)));
+    }
+
+    /**
+     * Discards all the mappers
+     */
+    public void clear() {
+        mappersByName.clear();
+        mappersByContentHash.clear();
+        importsByName.clear();
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * @param rebuild true to build a new mapper even if a mapper of the same content is cached
+     */
+    private EntityMapper<?> load(String fileName, boolean rebuild) {
+        // the imports are resolved for this load, whichever thread resolves them
+        Load load = new Load(fileName);
+        EntityMapper<?> mapper = loadContent(fileName, rebuild, name -> getImport(load, name));
+        mapper.share();
+        if (load.imports.isEmpty()) {
+            importsByName.remove(fileName);
+        } else {
+            importsByName.put(fileName, Collections.unmodifiableSet(load.imports));
+        }
+        return mapper;
+    }
+
+    /**
+     * @param importResolver resolver of the files imported by the file
+     */
+    private EntityMapper<?> loadContent(String fileName, boolean rebuild, Function<String, EntityMapper<?>> importResolver) {
+        String content;
+        try {
+            content = source.load(fileName);
+        } catch (IOException e) {
+            throw new EntityMapperException("Error reading entity map " + fileName, e);
+        }
+        if (content == null) {
+            throw new EntityMapperException("Entity map " + fileName + " not found");
+        }
+
+        // the mapper of a file with imports depends on the imported files too
+        String contentHash = EntityMapParser.hasImports(content) ? null : contentHash(content);
+        EntityMapper<?> mapper = rebuild || contentHash == null ? null : mappersByContentHash.get(contentHash);
+        if (mapper == null) {
+            byte[] compiled;
+            try {
+                compiled = source.loadCompiled(EntityMapperCompiler.compiledFileName(fileName));
+            } catch (IOException e) {
+                // the entity map is parsed instead
+                compiled = null;
+            }
+            ClassLoader classLoader = source.getClassLoader();
+            mapper = compiled != null ? EntityMapperCompiler.load(compiled, content, fileName, classLoader, importResolver)
+                    : EntityMapper.parse(content, fileName, classLoader, importResolver);
+            if (contentHash == null) {
+                return mapper;
+            } else if (rebuild) {
+                mappersByContentHash.put(contentHash, mapper);
+            } else {
+                EntityMapper<?> existing = mappersByContentHash.putIfAbsent(contentHash, mapper);
+                if (existing != null) {
+                    mapper = existing;
+                }
+            }
+        }
+        return mapper;
+    }
+
+    /**
+     * Loads a file again, and replaces its mapper
+     */
+    private EntityMapper<?> replace(String fileName) {
+        EntityMapper<?> mapper = load(fileName, true);
+        CompletableFuture<EntityMapper<?>> previous = mappersByName.put(fileName, CompletableFuture.completedFuture(mapper));
+
+        EntityMapper<?> previousMapper = loadedMapper(previous);
+        if (previousMapper != mapper) {
+            forget(previousMapper);
+        }
+        return mapper;
+    }
+
+    /**
+     * Discards a mapper that is no longer registered for a file, so that it is not kept for its content unless another file has the same content
+     */
+    private void forget(EntityMapper<?> mapper) {
+        if (mapper != null && mappersByName.values().stream().noneMatch(future -> loadedMapper(future) == mapper)) {
+            mappersByContentHash.values().remove(mapper);
+        }
+    }
+
+    private void reloadAll(Set<String> fileNames) {
+        Map<String, Throwable> errors = new LinkedHashMap<>();
+        for (String fileName : importOrder(fileNames)) {
+            try {
+                replace(fileName);
+            } catch (RuntimeException e) {
+                errors.put(fileName, e);
+            }
+        }
+        if (!errors.isEmpty()) {
+            EntityMapperException exception = new EntityMapperException(String.format("Error reloading %d of %d entity maps: %s",
+                    errors.size(), fileNames.size(), String.join(", ", errors.keySet())));
+            errors.values().forEach(exception::addSuppressed);
+            throw exception;
+        }
+    }
+
+    /**
+     * @return the loaded files importing some of the files, directly or through other files
+     */
+    private Set<String> importersOf(Set<String> fileNames) {
+        Set<String> importers = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>(fileNames);
+        while (!pending.isEmpty()) {
+            String imported = pending.poll();
+            importsByName.forEach((importer, imports) -> {
+                if (imports.contains(imported) && isLoaded(importer) && !fileNames.contains(importer) && importers.add(importer)) {
+                    pending.add(importer);
+                }
+            });
+        }
+        return importers;
+    }
+
+    /**
+     * @return the files, each after the files it imports
+     */
+    private List<String> importOrder(Set<String> fileNames) {
+        List<String> order = new ArrayList<>(fileNames.size());
+        Set<String> visited = new HashSet<>();
+        for (String fileName : fileNames) {
+            addInImportOrder(fileName, fileNames, visited, order);
+        }
+        return order;
+    }
+
+    private void addInImportOrder(String fileName, Set<String> fileNames, Set<String> visited, List<String> order) {
+        if (visited.add(fileName)) {
+            for (String imported : importsByName.getOrDefault(fileName, Collections.emptySet())) {
+                if (fileNames.contains(imported)) {
+                    addInImportOrder(imported, fileNames, visited, order);
+                }
+            }
+            order.add(fileName);
+        }
+    }
+
+    /**
+     * Records that a file being loaded waits for an imported file, unless the imported file waits for it, directly or through other files
+     *
+     * @throws EntityMapperException if the import is circular
+     */
+    private void startWaiting(String fileName, String importedFileName) {
+        synchronized (waitingFor) {
+            if (isWaiting(importedFileName, fileName, new HashSet<>())) {
+                throw new EntityMapperException("Circular import of entity map " + importedFileName + " by " + fileName);
+            }
+            waitingFor.computeIfAbsent(fileName, key -> new ArrayList<>()).add(importedFileName);
+        }
+    }
+
+    private void stopWaiting(String fileName, String importedFileName) {
+        synchronized (waitingFor) {
+            List<String> importedFileNames = waitingFor.get(fileName);
+            importedFileNames.remove(importedFileName);
+            if (importedFileNames.isEmpty()) {
+                waitingFor.remove(fileName);
+            }
+        }
+    }
+
+    private boolean isWaiting(String fileName, String awaitedFileName, Set<String> visited) {
+        if (fileName.equals(awaitedFileName)) {
+            return true;
+        }
+        if (visited.add(fileName)) {
+            for (String next : waitingFor.getOrDefault(fileName, Collections.emptyList())) {
+                if (isWaiting(next, awaitedFileName, visited)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static EntityMapper<?> loadedMapper(CompletableFuture<EntityMapper<?>> future) {
+        return future != null && future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+    }
+
+    static String fileName(String name) {
+        return name.endsWith(FILE_EXTENSION) ? name : name + FILE_EXTENSION;
+    }
+
+    static String contentHash(String content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static List<String> listDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(file -> file.toString().endsWith(FILE_EXTENSION) && Files.isRegularFile(file))
+                    .map(file -> directory.relativize(file).toString().replace(File.separatorChar, '/'))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * A file being loaded, with the files it imported so far
+     */
+    private static final class Load {
+        final String fileName;
+        final Set<String> imports = new LinkedHashSet<>();
+
+        Load(String fileName) {
+            this.fileName = fileName;
+        }
+    }
+
+    /**
+     * Where the entity map files are read from
+     */
+    public interface Source {
+
+        /**
+         * Reads an entity map file
+         *
+         * @param fileName name of the file, relative to the source
+         * @return the content of the file, or null if there is no such file
+         * @throws IOException if the file cannot be read
+         */
+        String load(String fileName) throws IOException;
+
+        /**
+         * Reads a compiled entity map file
+         *
+         * @param fileName name of the compiled file, relative to the source
+         * @return the content of the file, or null if there is no such file
+         * @throws IOException if the file cannot be read
+         */
+        default byte[] loadCompiled(String fileName) throws IOException {
+            return null;
+        }
+
+        /**
+         * Lists the entity map files of the source
+         *
+         * @return the names of the files, relative to the source, in order
+         * @throws IOException                   if the files cannot be listed
+         * @throws UnsupportedOperationException if the source cannot list its files
+         */
+        default List<String> list() throws IOException {
+            throw new UnsupportedOperationException("The entity maps of " + getClass().getName() + " cannot be listed");
+        }
+
+        /**
+         * @return the class loader of the entity classes of the entity maps, or null for the class loader of the parser
+         */
+        default ClassLoader getClassLoader() {
+            return null;
+        }
+
+        /**
+         * Source reading the files of a directory
+         */
+        static Source directory(Path directory) {
+            return directory(directory, null);
+        }
+
+        /**
+         * Source reading the files of a directory
+         *
+         * @param directory   the directory
+         * @param classLoader class loader of the entity classes (may be null for the class loader of the parser)
+         */
+        static Source directory(Path directory, ClassLoader classLoader) {
+            return new Source() {
+                @Override
+                public String load(String fileName) throws IOException {
+                    byte[] content = loadCompiled(fileName);
+                    return content != null ? new String(content, StandardCharsets.UTF_8) : null;
+                }
+
+                @Override
+                public byte[] loadCompiled(String fileName) throws IOException {
+                    Path file = directory.resolve(fileName).normalize();
+                    if (!file.startsWith(directory.normalize())) {
+                        throw new IOException("Entity map " + fileName + " is outside of " + directory);
+                    }
+                    try {
+                        return Files.readAllBytes(file);
+                    } catch (NoSuchFileException e) {
+                        return null;
+                    }
+                }
+
+                @Override
+                public List<String> list() throws IOException {
+                    return listDirectory(directory);
+                }
+
+                @Override
+                public ClassLoader getClassLoader() {
+                    return classLoader;
+                }
+            };
+        }
+
+        /**
+         * Source reading class path resources
+         *
+         * @param classLoader class loader of the resources and of the entity classes
+         * @param basePath    path of the resources, e.g. "maps/"
+         */
+        static Source classpath(ClassLoader classLoader, String basePath) {
+            String prefix = basePath.isEmpty() || basePath.endsWith("/") ? basePath : basePath + "/";
+            return new Source() {
+                @Override
+                public String load(String fileName) throws IOException {
+                    byte[] content = loadCompiled(fileName);
+                    return content != null ? new String(content, StandardCharsets.UTF_8) : null;
+                }
+
+                @Override
+                public byte[] loadCompiled(String fileName) throws IOException {
+                    try (InputStream in = classLoader.getResourceAsStream(prefix + fileName)) {
+                        if (in == null) {
+                            return null;
+                        }
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            bytes.write(buffer, 0, read);
+                        }
+                        return bytes.toByteArray();
+                    }
+                }
+
+                /**
+                 * Lists the files of the directories and jar files of the class path. The entries of a jar file are only found
+                 * if the jar file has an entry for the base path directory.
+                 */
+                @Override
+                public List<String> list() throws IOException {
+                    Set<String> fileNames = new TreeSet<>();
+                    Enumeration<URL> urls = classLoader.getResources(prefix);
+                    while (urls.hasMoreElements()) {
+                        URL url = urls.nextElement();
+                        if ("file".equals(url.getProtocol())) {
+                            try {
+                                fileNames.addAll(listDirectory(Paths.get(url.toURI())));
+                            } catch (URISyntaxException e) {
+                                throw new IOException("Invalid class path directory " + url, e);
+                            }
+                        } else if ("jar".equals(url.getProtocol())) {
+                            JarURLConnection connection = (JarURLConnection) url.openConnection();
+                            connection.setUseCaches(false);
+                            try (JarFile jarFile = connection.getJarFile()) {
+                                for (JarEntry entry : Collections.list(jarFile.entries())) {
+                                    if (!entry.isDirectory() && entry.getName().startsWith(prefix) && entry.getName().endsWith(FILE_EXTENSION)) {
+                                        fileNames.add(entry.getName().substring(prefix.length()));
+                                    }
+                                }
+                            }
+                        } else {
+                            throw new IOException("Class path resources " + url + " cannot be listed");
+                        }
+                    }
+                    return new ArrayList<>(fileNames);
+                }
+
+                @Override
+                public ClassLoader getClassLoader() {
+                    return classLoader;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package entity.mapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches a directory of entity map files, and reloads the mappers of the registry when their files change.
+ * <p>
+ * The changed files are reloaded on a background thread once no change was seen for a quiet period, so a file written in several steps is loaded once.
+ * A file is only reloaded if its mapper was loaded: the other files are loaded from their new content when they are first used.
+ * The loaded files importing a changed file are reloaded with it (see EntityMapperRegistry.reload(Collection)).
+ * The new mapper replaces the previous one in the registry once it is built (see EntityMapperRegistry.reload()), and a file that cannot be
+ * loaded, or that was deleted, keeps its previous mapper.
+ */
+public class EntityMapperWatcher implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(EntityMapperWatcher.class.getName());
+
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 200;
+
+    private final EntityMapperRegistry registry;
+    private final Path directory;
+    private final long quietPeriodMillis;
+    private final WatchService watchService;
+    // watched directories, only used by the watcher thread once it is started
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Thread thread;
+
+    /**
+     * @param registry  the registry of the mappers
+     * @param directory the directory the registry loads the files from
+     * @throws IOException if the directory cannot be watched
+     */
+    public EntityMapperWatcher(EntityMapperRegistry registry, Path directory) throws IOException {
+        this(registry, directory, DEFAULT_QUIET_PERIOD_MILLIS);
+    }
+
+    /**
+     * @param registry          the registry of the mappers
+     * @param directory         the directory the registry loads the files from
+     * @param quietPeriodMillis time without changes after which the changed files are reloaded
+     * @throws IOException if the directory cannot be watched
+     */
+    public EntityMapperWatcher(EntityMapperRegistry registry, Path directory, long quietPeriodMillis) throws IOException {
+        if (registry == null || directory == null) {
+            throw new IllegalArgumentException("registry and directory are required");
+        }
+        this.registry = registry;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.quietPeriodMillis = quietPeriodMillis;
+        this.watchService = this.directory.getFileSystem().newWatchService();
+        try {
+            registerDirectories(this.directory);
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        thread = new Thread(this::run, "entity-mapper-watcher");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts watching the directory
+     *
+     * @return this watcher
+     */
+    public EntityMapperWatcher start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Stops watching the directory. The files being reloaded are still replaced.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Set<String> fileNames = new TreeSet<>();
+                WatchKey key = watchService.take();
+                do {
+                    collectChanges(key, fileNames);
+                    key = watchService.poll(quietPeriodMillis, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                reload(fileNames);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void collectChanges(WatchKey key, Set<String> fileNames) {
+        Path keyDirectory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            try {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // events were lost, any file may have changed
+                    fileNames.addAll(listFiles(directory));
+                } else if (keyDirectory != null) {
+                    Path file = keyDirectory.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                        registerDirectories(file);
+                        fileNames.addAll(listFiles(file));
+                    } else if (isEntityMapFile(file)) {
+                        fileNames.add(fileName(file));
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error watching the entity maps of " + keyDirectory, e);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private void reload(Set<String> fileNames) {
+        fileNames.removeIf(fileName -> !registry.isLoaded(fileName));
+        if (fileNames.isEmpty()) {
+            return;
+        }
+        try {
+            registry.reload(fileNames);
+            LOGGER.info("Reloaded entity maps " + fileNames);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Entity maps " + fileNames + " could not all be reloaded, the previous mappers of the failed ones are kept", e);
+        }
+    }
+
+    private void registerDirectories(Path start) throws IOException {
+        try (Stream<Path> paths = Files.walk(start)) {
+            for (Path path : paths.filter(Files::isDirectory).collect(Collectors.toList())) {
+                directories.put(path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE), path);
+            }
+        }
+    }
+
+    private Set<String> listFiles(Path start) throws IOException {
+        try (Stream<Path> paths = Files.walk(start)) {
+            return paths.filter(path -> isEntityMapFile(path) && Files.isRegularFile(path)).map(this::fileName).collect(Collectors.toSet());
+        }
+    }
+
+    private static boolean isEntityMapFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(EntityMapperRegistry.FILE_EXTENSION) || name.endsWith(EntityMapperCompiler.FILE_EXTENSION);
+    }
+
+    /**
+     * @return the name of the entity map file of a file, relative to the directory. A compiled file is reloaded as its entity map.
+     */
+    private String fileName(Path file) {
+        String fileName = directory.relativize(file).toString().replace(File.separatorChar, '/');
+        if (fileName.endsWith(EntityMapperCompiler.FILE_EXTENSION)) {
+            fileName = fileName.substring(0, fileName.length() - EntityMapperCompiler.FILE_EXTENSION.length()) + EntityMapperRegistry.FILE_EXTENSION;
+        }
+        return fileName;
+    }
+}
@@ -25,8 +25,9 @@ public class ManyToOneJoinedEntityComponentDataMapping extends EntityComponentDa
         try {
             Object savingValue = PropertyUtils.getProperty(savedComponentEntityData, fieldMap.getForeignKey());
             if (modified != null) {
-                if (!Objects.equals(PropertyUtils.getProperty(parentEntityData, fieldMap.getParentKey()), savingValue)) {
-                    modified.set(true);
+                Object currentValue = PropertyUtils.getProperty(parentEntityData, fieldMap.getParentKey());
+                if (!Objects.equals(currentValue, savingValue)) {
+                    ChangeSet.markModified(modified, fieldMap, currentValue, savingValue);
                 }
             }
             PropertyUtils.setProperty(parentEntityData, fieldMap.getParentKey(), savingValue);
@@ -0,0 +1,137 @@
+package entity.mapper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Trie of values by dot separated field path.
+ * <p>
+ * A mapper adds the index of each sub-mapper under the field that holds it, so the index of a mapper tree is built once per level,
+ * and the nodes below the sub-mapper fields are shared with the sub-mappers. Nodes reachable from another index are never changed:
+ * adding to an existing node replaces it with an updated copy.
+ */
+final class PathIndex<V> {
+    private final Map<String, PathIndex<V>> children;
+    private final V value;
+    private final boolean hasValue;
+
+    PathIndex() {
+        this(new HashMap<>(), null, false);
+    }
+
+    private PathIndex(Map<String, PathIndex<V>> children, V value, boolean hasValue) {
+        this.children = children;
+        this.value = value;
+        this.hasValue = hasValue;
+    }
+
+    /**
+     * Adds a value at a path
+     *
+     * @param path     path of the value, relative to this node
+     * @param value    value (may be null)
+     * @param subPaths index of the paths below the value (may be null)
+     */
+    void put(String path, V value, PathIndex<V> subPaths) {
+        PathIndex<V> node = new PathIndex<>(subPaths != null ? new HashMap<>(subPaths.children) : new HashMap<>(), value, true);
+        int dot = path.lastIndexOf('.');
+        if (dot < 0) {
+            merge(path, node);
+        } else {
+            // names containing dots are indexed under their segments
+            node(path.substring(0, dot)).merge(path.substring(dot + 1), node);
+        }
+    }
+
+    /**
+     * Adds all the paths of another index, the values of the other index replacing the values at the same paths
+     */
+    void putAll(PathIndex<V> other) {
+        for (Map.Entry<String, PathIndex<V>> entry : other.children.entrySet()) {
+            merge(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Gets the node at a path, adding empty nodes where the path does not exist yet
+     */
+    PathIndex<V> node(String path) {
+        PathIndex<V> node = this;
+        for (String name : path.split("\\.")) {
+            PathIndex<V> child = node.children.get(name);
+            if (child == null) {
+                child = new PathIndex<>();
+                node.children.put(name, child);
+            } else {
+                // the node may be shared, it is copied before it is changed
+                child = new PathIndex<>(new HashMap<>(child.children), child.value, child.hasValue);
+                node.children.put(name, child);
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    V get(String path) {
+        PathIndex<V> node = find(path);
+        return node != null ? node.value : null;
+    }
+
+    boolean containsKey(String path) {
+        PathIndex<V> node = find(path);
+        return node != null && node.hasValue;
+    }
+
+    /**
+     * Joins the names mapped from the values along a path, e.g. the internal path of an external path
+     *
+     * @return the joined names, or null if there is no value at the path
+     */
+    String mapPath(String path, Function<V, String> name) {
+        StringBuilder mappedPath = new StringBuilder(path.length());
+        PathIndex<V> node = this;
+        int start = 0;
+        while (node != null) {
+            int dot = path.indexOf('.', start);
+            node = node.children.get(dot < 0 ? (start == 0 ? path : path.substring(start)) : path.substring(start, dot));
+            if (node != null && node.hasValue) {
+                if (mappedPath.length() > 0) {
+                    mappedPath.append('.');
+                }
+                mappedPath.append(name.apply(node.value));
+            }
+            if (dot < 0) {
+                return node != null && node.hasValue ? mappedPath.toString() : null;
+            }
+            start = dot + 1;
+        }
+        return null;
+    }
+
+    private PathIndex<V> find(String path) {
+        PathIndex<V> node = this;
+        int start = 0;
+        while (node != null) {
+            int dot = path.indexOf('.', start);
+            if (dot < 0) {
+                return node.children.get(start == 0 ? path : path.substring(start));
+            }
+            node = node.children.get(path.substring(start, dot));
+            start = dot + 1;
+        }
+        return null;
+    }
+
+    private void merge(String name, PathIndex<V> node) {
+        PathIndex<V> existing = children.get(name);
+        if (existing == null) {
+            // shared, not copied: the nodes are only changed through copies
+            children.put(name, node);
+        } else {
+            PathIndex<V> merged = new PathIndex<>(new HashMap<>(existing.children), node.hasValue ? node.value : existing.value, node.hasValue || existing.hasValue);
+            merged.putAll(node);
+            children.put(name, merged);
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package entity.mapper.datamap;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 
 import java.io.IOException;
@@ -89,7 +92,9 @@ public class DataMap extends HashMap<String, Object> {
 
     private static ObjectMapper getObjectMapper() {
         return new ObjectMapper()
-                .registerModule(new SimpleModule().addAbstractTypeMapping(Map.class, DataMap.class))
+                .registerModule(new SimpleModule()
+                        .addAbstractTypeMapping(Map.class, DataMap.class)
+                        .addSerializer(PrimitiveArrayList.class, new PrimitiveArrayListSerializer()))
                 .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
     }
 
@@ -165,4 +170,14 @@ public class DataMap extends HashMap<String, Object> {
     public void setParent(DataMap parent) {
         this.parent = parent;
     }
+
+    /**
+     * Writes primitive collections straight from their backing arrays
+     */
+    private static class PrimitiveArrayListSerializer extends JsonSerializer<PrimitiveArrayList> {
+        @Override
+        public void serialize(PrimitiveArrayList value, JsonGenerator generator, SerializerProvider serializers) throws IOException {
+            value.writeTo(generator);
+        }
+    }
 }
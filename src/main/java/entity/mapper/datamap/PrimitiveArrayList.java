@@ -0,0 +1,443 @@
+package entity.mapper.datamap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.RandomAccess;
+
+/**
+ * A list of numbers backed by a growable primitive array.
+ * <p>
+ * Used as the data map representation of primitive collections (e.g. [Integer]) so that the values can be compared
+ * and written to json without boxing. Values are only boxed when they are accessed through the List interface.
+ */
+public abstract class PrimitiveArrayList<T extends Number> extends AbstractList<T> implements RandomAccess {
+    private static final int DEFAULT_CAPACITY = 10;
+
+    protected int size;
+
+    /**
+     * Copies a collection of boxed values into a primitive list.
+     *
+     * @param type   The element type of the collection
+     * @param values The values to copy
+     * @return A primitive list containing the values, or null if the type has no primitive representation
+     * @throws IllegalArgumentException if a value is null or is not a number
+     */
+    public static PrimitiveArrayList<?> copyOf(Class type, Collection<?> values) {
+        PrimitiveArrayList<?> list;
+        if (type == Integer.class) {
+            list = new OfInt(values.size());
+        } else if (type == Long.class) {
+            list = new OfLong(values.size());
+        } else if (type == Double.class) {
+            list = new OfDouble(values.size());
+        } else {
+            return null;
+        }
+        for (Object value : values) {
+            if (!(value instanceof Number)) {
+                throw new IllegalArgumentException("A primitive list of " + type.getSimpleName() + " cannot hold " + value);
+            }
+            list.addNumber((Number) value);
+        }
+        return list;
+    }
+
+    /**
+     * Wraps a primitive array without copying it.
+     *
+     * @param array An int[], long[] or double[]
+     * @return A primitive list backed by the array, or null if the object is not a supported array
+     */
+    public static PrimitiveArrayList<?> wrap(Object array) {
+        if (array instanceof int[]) {
+            return new OfInt((int[]) array);
+        } else if (array instanceof long[]) {
+            return new OfLong((long[]) array);
+        } else if (array instanceof double[]) {
+            return new OfDouble((double[]) array);
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Compares the contents of this list with a collection in iteration order, without boxing the values of this list.
+     *
+     * @param other The collection to compare
+     * @return true if the collection contains the same values in the same order
+     */
+    public boolean contentEquals(Collection<?> other) {
+        if (other == null || other.size() != size) {
+            return false;
+        }
+        if (other instanceof PrimitiveArrayList) {
+            return equals(other);
+        }
+        Iterator<?> iterator = other.iterator();
+        for (int index = 0; index < size; index++) {
+            if (!valueEquals(index, iterator.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    protected int grow(int capacity) {
+        return Math.max(DEFAULT_CAPACITY, Math.max(capacity, size + (size >> 1)));
+    }
+
+    /**
+     * @return The boxed type of the values
+     */
+    public abstract Class<T> getElementType();
+
+    protected abstract void addNumber(Number value);
+
+    protected abstract boolean valueEquals(int index, Object value);
+
+    /**
+     * Writes the values as a json array
+     *
+     * @param generator The json generator
+     * @throws IOException
+     */
+    public abstract void writeTo(JsonGenerator generator) throws IOException;
+
+    public static final class OfInt extends PrimitiveArrayList<Integer> {
+        private int[] values;
+
+        public OfInt(int capacity) {
+            values = new int[capacity];
+        }
+
+        public OfInt(int[] values) {
+            this.values = values;
+            this.size = values.length;
+        }
+
+        public int getInt(int index) {
+            checkIndex(index, size);
+            return values[index];
+        }
+
+        public void addInt(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size + 1));
+            }
+            values[size++] = value;
+            modCount++;
+        }
+
+        public int[] toIntArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        @Override
+        public Integer get(int index) {
+            return getInt(index);
+        }
+
+        @Override
+        public Integer set(int index, Integer value) {
+            checkIndex(index, size);
+            int previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Integer value) {
+            checkIndex(index, size + 1);
+            addInt(value);
+            System.arraycopy(values, index, values, index + 1, size - index - 1);
+            values[index] = value;
+        }
+
+        @Override
+        public Integer remove(int index) {
+            checkIndex(index, size);
+            int previous = values[index];
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public Class<Integer> getElementType() {
+            return Integer.class;
+        }
+
+        @Override
+        protected void addNumber(Number value) {
+            addInt(value.intValue());
+        }
+
+        @Override
+        protected boolean valueEquals(int index, Object value) {
+            return value instanceof Integer && (Integer) value == values[index];
+        }
+
+        @Override
+        public void writeTo(JsonGenerator generator) throws IOException {
+            generator.writeArray(values, 0, size);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof OfInt) {
+                OfInt that = (OfInt) o;
+                if (that.size != size) {
+                    return false;
+                }
+                for (int index = 0; index < size; index++) {
+                    if (values[index] != that.values[index]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 1;
+            for (int index = 0; index < size; index++) {
+                result = 31 * result + Integer.hashCode(values[index]);
+            }
+            return result;
+        }
+    }
+
+    public static final class OfLong extends PrimitiveArrayList<Long> {
+        private long[] values;
+
+        public OfLong(int capacity) {
+            values = new long[capacity];
+        }
+
+        public OfLong(long[] values) {
+            this.values = values;
+            this.size = values.length;
+        }
+
+        public long getLong(int index) {
+            checkIndex(index, size);
+            return values[index];
+        }
+
+        public void addLong(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size + 1));
+            }
+            values[size++] = value;
+            modCount++;
+        }
+
+        public long[] toLongArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        @Override
+        public Long get(int index) {
+            return getLong(index);
+        }
+
+        @Override
+        public Long set(int index, Long value) {
+            checkIndex(index, size);
+            long previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Long value) {
+            checkIndex(index, size + 1);
+            addLong(value);
+            System.arraycopy(values, index, values, index + 1, size - index - 1);
+            values[index] = value;
+        }
+
+        @Override
+        public Long remove(int index) {
+            checkIndex(index, size);
+            long previous = values[index];
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public Class<Long> getElementType() {
+            return Long.class;
+        }
+
+        @Override
+        protected void addNumber(Number value) {
+            addLong(value.longValue());
+        }
+
+        @Override
+        protected boolean valueEquals(int index, Object value) {
+            return value instanceof Long && (Long) value == values[index];
+        }
+
+        @Override
+        public void writeTo(JsonGenerator generator) throws IOException {
+            generator.writeArray(values, 0, size);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof OfLong) {
+                OfLong that = (OfLong) o;
+                if (that.size != size) {
+                    return false;
+                }
+                for (int index = 0; index < size; index++) {
+                    if (values[index] != that.values[index]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 1;
+            for (int index = 0; index < size; index++) {
+                result = 31 * result + Long.hashCode(values[index]);
+            }
+            return result;
+        }
+    }
+
+    public static final class OfDouble extends PrimitiveArrayList<Double> {
+        private double[] values;
+
+        public OfDouble(int capacity) {
+            values = new double[capacity];
+        }
+
+        public OfDouble(double[] values) {
+            this.values = values;
+            this.size = values.length;
+        }
+
+        public double getDouble(int index) {
+            checkIndex(index, size);
+            return values[index];
+        }
+
+        public void addDouble(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size + 1));
+            }
+            values[size++] = value;
+            modCount++;
+        }
+
+        public double[] toDoubleArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        @Override
+        public Double get(int index) {
+            return getDouble(index);
+        }
+
+        @Override
+        public Double set(int index, Double value) {
+            checkIndex(index, size);
+            double previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Double value) {
+            checkIndex(index, size + 1);
+            addDouble(value);
+            System.arraycopy(values, index, values, index + 1, size - index - 1);
+            values[index] = value;
+        }
+
+        @Override
+        public Double remove(int index) {
+            checkIndex(index, size);
+            double previous = values[index];
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public Class<Double> getElementType() {
+            return Double.class;
+        }
+
+        @Override
+        protected void addNumber(Number value) {
+            addDouble(value.doubleValue());
+        }
+
+        @Override
+        protected boolean valueEquals(int index, Object value) {
+            // same semantics as Double.equals
+            return value instanceof Double && Double.doubleToLongBits((Double) value) == Double.doubleToLongBits(values[index]);
+        }
+
+        @Override
+        public void writeTo(JsonGenerator generator) throws IOException {
+            generator.writeArray(values, 0, size);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof OfDouble) {
+                OfDouble that = (OfDouble) o;
+                if (that.size != size) {
+                    return false;
+                }
+                for (int index = 0; index < size; index++) {
+                    if (Double.doubleToLongBits(values[index]) != Double.doubleToLongBits(that.values[index])) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 1;
+            for (int index = 0; index < size; index++) {
+                result = 31 * result + Double.hashCode(values[index]);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package entity.mapper.digest;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Computes a SHA-256 digest over a stream of field names and values.
+ * <p>
+ * Every value is written with a type tag, and values that are equal once mapped are written identically
+ * (e.g. BigDecimals differing only by trailing zeros). Numbers of different types are written differently, even with the same value,
+ * as the values are applied to the entities without conversion.
+ * Writes are buffered so that the underlying digest is updated in blocks.
+ */
+public class FieldDigest {
+    private static final byte NULL = 0;
+    private static final byte ABSENT = 1;
+    private static final byte FALSE = 2;
+    private static final byte TRUE = 3;
+    private static final byte INTEGRAL = 4;
+    private static final byte DECIMAL = 5;
+    private static final byte STRING = 6;
+    private static final byte DATE = 7;
+    private static final byte TEMPORAL = 8;
+    private static final byte BYTES = 9;
+    private static final byte NAME = 10;
+    private static final byte BEGIN_MAP = 11;
+    private static final byte END_MAP = 12;
+    private static final byte BEGIN_LIST = 13;
+    private static final byte END_LIST = 14;
+    private static final byte TOKEN = 15;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // written after the number tags, by index
+    private static final List<Class<?>> NUMBER_TYPES = Arrays.asList(Byte.class, Short.class, Integer.class, Long.class, BigInteger.class,
+            Float.class, Double.class, BigDecimal.class);
+
+    private final MessageDigest digest;
+    private final byte[] buffer = new byte[512];
+    private int position;
+
+    public FieldDigest() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public FieldDigest name(String name) {
+        writeByte(NAME);
+        writeString(name);
+        return this;
+    }
+
+    /**
+     * Writes a field that has no value, as opposed to a null value
+     */
+    public FieldDigest absent() {
+        writeByte(ABSENT);
+        return this;
+    }
+
+    public FieldDigest nullValue() {
+        writeByte(NULL);
+        return this;
+    }
+
+    /**
+     * Writes a marker that is distinct from any value
+     *
+     * @param token name of the marker
+     */
+    public FieldDigest token(String token) {
+        writeByte(TOKEN);
+        writeString(token);
+        return this;
+    }
+
+    public FieldDigest beginMap() {
+        writeByte(BEGIN_MAP);
+        return this;
+    }
+
+    public FieldDigest endMap() {
+        writeByte(END_MAP);
+        return this;
+    }
+
+    public FieldDigest beginList(int size) {
+        writeByte(BEGIN_LIST);
+        writeInt(size);
+        return this;
+    }
+
+    public FieldDigest endList() {
+        writeByte(END_LIST);
+        return this;
+    }
+
+    /**
+     * Writes a scalar value
+     *
+     * @param value value to be written (may be null)
+     * @return false if the type of the value is not supported, in which case nothing is written
+     */
+    public boolean value(Object value) {
+        if (value == null) {
+            nullValue();
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Number) {
+            return number((Number) value);
+        } else if (value instanceof CharSequence || value instanceof Character || value instanceof UUID) {
+            writeByte(STRING);
+            writeString(value.toString());
+        } else if (value instanceof Enum) {
+            writeByte(STRING);
+            writeString(((Enum) value).name());
+        } else if (value instanceof Date) {
+            writeByte(DATE);
+            writeLong(((Date) value).getTime());
+            writeInt(value instanceof Timestamp ? ((Timestamp) value).getNanos() : 0);
+        } else if (value instanceof TemporalAccessor) {
+            writeByte(TEMPORAL);
+            writeString(value.getClass().getName());
+            writeString(value.toString());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            writeByte(BYTES);
+            writeInt(bytes.length);
+            for (byte b : bytes) {
+                writeByte(b);
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private boolean number(Number value) {
+        int type = NUMBER_TYPES.indexOf(value.getClass());
+        if (type < 0) {
+            return false;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeByte(INTEGRAL);
+            writeByte((byte) type);
+            writeLong(value.longValue());
+            return true;
+        }
+
+        BigDecimal decimal;
+        if (value instanceof BigDecimal) {
+            decimal = (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            decimal = new BigDecimal((BigInteger) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = value.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                writeByte(DECIMAL);
+                writeByte((byte) type);
+                writeString(Double.toString(d));
+                return true;
+            }
+            // Float.toString gives the shortest decimal representation of the float, not of its widened double
+            decimal = new BigDecimal(value.toString());
+        } else {
+            return false;
+        }
+
+        decimal = decimal.stripTrailingZeros();
+        if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() <= 18) {
+            writeByte(INTEGRAL);
+            writeByte((byte) type);
+            writeLong(decimal.longValueExact());
+        } else {
+            writeByte(DECIMAL);
+            writeByte((byte) type);
+            writeString(decimal.toString());
+        }
+        return true;
+    }
+
+    /**
+     * Completes the digest. The FieldDigest cannot be used afterwards.
+     *
+     * @return the digest as a lower case hex string
+     */
+    public String toHexString() {
+        flush();
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private void writeString(String value) {
+        int length = value.length();
+        writeInt(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (position + 2 > buffer.length) {
+                flush();
+            }
+            buffer[position++] = (byte) (c >> 8);
+            buffer[position++] = (byte) c;
+        }
+    }
+
+    private void writeInt(int value) {
+        if (position + 4 > buffer.length) {
+            flush();
+        }
+        buffer[position++] = (byte) (value >> 24);
+        buffer[position++] = (byte) (value >> 16);
+        buffer[position++] = (byte) (value >> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+        writeInt((int) (value >> 32));
+        writeInt((int) value);
+    }
+
+    private void writeByte(byte value) {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = value;
+    }
+
+    private void flush() {
+        digest.update(buffer, 0, position);
+        position = 0;
+    }
+}
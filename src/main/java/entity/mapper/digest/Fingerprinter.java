@@ -0,0 +1,391 @@
+package entity.mapper.digest;
+
+import entity.mapper.Attributed;
+import entity.mapper.EntityMapper;
+import entity.mapper.datamap.DataMap;
+import entity.mapper.datamap.PrimitiveArrayList;
+import entity.mapper.fieldmaps.CollectionMap;
+import entity.mapper.fieldmaps.ComponentMap;
+import entity.mapper.fieldmaps.FieldMap;
+import entity.mapper.fieldmaps.SimpleFieldMap;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Computes the fingerprint of a data map and of an entity over the fields that an UPDATE would apply,
+ * and the hash of an entity over the fields that toMap would render.
+ * <p>
+ * The fingerprints are equal only if applying the map to the entity with toEntity would not change it,
+ * so an update can be skipped when they match. Unknown keys in the map are ignored, as they are by toEntity.
+ * <p>
+ * Where the state of a field is not exposed by the entity (sensitive, write only, lazy or cascaded join fields),
+ * the entity is fingerprinted as if the field was not in the map. Any value supplied in the map for such a field
+ * then causes a mismatch, and the update to be applied.
+ */
+public final class Fingerprinter {
+    private static final String IDENTIFIER_TOKEN = "id";
+    // written by the data map side only, for values that toEntity expands (e.g. a null component with defaults)
+    private static final String DEFAULTS_TOKEN = "defaults";
+    // written by the entity side only, for collections whose items cannot be matched by identifier
+    private static final String UNKEYED_TOKEN = "unkeyed";
+
+    private Fingerprinter() {
+    }
+
+    /**
+     * @param mapper mapper of the map
+     * @param map    map to be applied to an entity
+     * @return the fingerprint, or null if the map contains values that cannot be fingerprinted (e.g. a streamed collection)
+     */
+    public static String fingerprint(EntityMapper<?> mapper, DataMap map) {
+        FieldDigest digest = new FieldDigest();
+        return writeMap(mapper, map, digest, false) ? digest.toHexString() : null;
+    }
+
+    /**
+     * @param mapper mapper of the entity
+     * @param entity entity to be fingerprinted
+     * @return the fingerprint, or null if the entity contains values that cannot be fingerprinted
+     * @throws Exception if a property cannot be read
+     */
+    public static String fingerprint(EntityMapper<?> mapper, Object entity) throws Exception {
+        FieldDigest digest = new FieldDigest();
+        return writeEntity(mapper, entity, digest, false) ? digest.toHexString() : null;
+    }
+
+    /**
+     * Hashes the fields of an entity as toMap would render them, in field map order, without building the map.
+     * Sensitive values are masked, lazy collections are skipped and null fields are omitted as in the map.
+     *
+     * @param mapper mapper of the entity
+     * @param entity entity to be hashed
+     * @return the hash, or null if the entity contains values that cannot be hashed
+     * @throws Exception if a property cannot be read
+     */
+    public static String hash(EntityMapper<?> mapper, Object entity) throws Exception {
+        FieldDigest digest = new FieldDigest();
+        return writeRendered(mapper, entity, digest) ? digest.toHexString() : null;
+    }
+
+    private static boolean writeMap(EntityMapper<?> mapper, Map<String, Object> map, FieldDigest digest, boolean nested) {
+        if (nested && mapper.getExternalIdentifierFieldName() != null) {
+            digest.token(IDENTIFIER_TOKEN);
+            if (!digest.value(map.get(mapper.getExternalIdentifierFieldName()))) {
+                return false;
+            }
+        }
+
+        for (FieldMap fieldMap : mapper.getFieldMaps()) {
+            if (!isApplied(fieldMap)) {
+                continue;
+            }
+            digest.name(fieldMap.getExternalFieldName());
+
+            if (fieldMap instanceof ComponentMap) {
+                ComponentMap componentMap = (ComponentMap) fieldMap;
+                Object value;
+                boolean present;
+                if (componentMap.isFlattened()) {
+                    value = collectFlattenedFields(componentMap, map);
+                    present = value != null || map.containsKey(fieldMap.getExternalFieldName());
+                    if (value == null) {
+                        value = map.get(fieldMap.getExternalFieldName());
+                    }
+                } else {
+                    present = map.containsKey(fieldMap.getExternalFieldName());
+                    value = map.get(fieldMap.getExternalFieldName());
+                }
+
+                if (!present) {
+                    digest.absent();
+                } else if (value == null) {
+                    if (!componentMap.isJoin() && componentMap.hasDefaults() && !componentMap.isOuterJoin()) {
+                        digest.token(DEFAULTS_TOKEN);
+                    } else if (componentMap.isForSubclass() && !componentMap.isAttribute()) {
+                        digest.absent();
+                    } else {
+                        digest.nullValue();
+                    }
+                } else {
+                    digest.beginMap();
+                    if (!writeMap(componentMap.getEntityMapper(), (Map<String, Object>) value, digest, !componentMap.isForSubclass())) {
+                        return false;
+                    }
+                    digest.endMap();
+                }
+            } else if (fieldMap instanceof CollectionMap) {
+                CollectionMap collectionMap = (CollectionMap) fieldMap;
+                Object value = map.get(fieldMap.getExternalFieldName());
+                if (value == null) {
+                    // a null collection is not applied
+                    digest.absent();
+                    continue;
+                }
+                if (!(value instanceof Collection)) {
+                    value = PrimitiveArrayList.wrap(value);
+                    if (value == null) {
+                        // e.g. a streamed collection, which can only be read once
+                        return false;
+                    }
+                }
+                Collection<?> items = (Collection<?>) value;
+                digest.beginList(items.size());
+                for (Object item : items) {
+                    if (collectionMap.getPrimitiveType() != null) {
+                        if (!digest.value(item)) {
+                            return false;
+                        }
+                    } else if (item == null) {
+                        digest.nullValue();
+                    } else {
+                        digest.beginMap();
+                        if (!writeMap(collectionMap.getEntityMapper(), (Map<String, Object>) item, digest, true)) {
+                            return false;
+                        }
+                        digest.endMap();
+                    }
+                }
+                digest.endList();
+            } else {
+                Object value = map.get(fieldMap.getExternalFieldName());
+                // the mask stands for the current value of a sensitive field, which is not applied
+                if (!map.containsKey(fieldMap.getExternalFieldName())
+                        || (fieldMap.getAccess() == FieldMap.Access.SENSITIVE && FieldMap.PASSWORD_MASK.equals(value))) {
+                    digest.absent();
+                } else if (!digest.value(value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean writeEntity(EntityMapper<?> mapper, Object entity, FieldDigest digest, boolean nested) throws Exception {
+        if (nested && mapper.getInternalIdentifierFieldName() != null) {
+            digest.token(IDENTIFIER_TOKEN);
+            if (!digest.value(PropertyUtils.getProperty(entity, mapper.getInternalIdentifierFieldName()))) {
+                return false;
+            }
+        }
+
+        for (FieldMap fieldMap : mapper.getFieldMaps()) {
+            if (!isApplied(fieldMap) || (fieldMap.isAttribute() && !(entity instanceof Attributed))) {
+                continue;
+            }
+            digest.name(fieldMap.getExternalFieldName());
+
+            if (!isExposed(fieldMap)) {
+                digest.absent();
+                continue;
+            }
+
+            if (fieldMap instanceof ComponentMap) {
+                ComponentMap componentMap = (ComponentMap) fieldMap;
+                if (componentMap.isForSubclass() && !componentMap.isAttribute()) {
+                    if (componentMap.getEntityMapper().getBaseClass().isInstance(entity)) {
+                        digest.beginMap();
+                        if (!writeEntity(componentMap.getEntityMapper(), entity, digest, false)) {
+                            return false;
+                        }
+                        digest.endMap();
+                    } else {
+                        digest.absent();
+                    }
+                    continue;
+                }
+
+                Object value = getValue(fieldMap, entity);
+                if (value == null) {
+                    if (componentMap.isFlattened()) {
+                        digest.absent();
+                    } else {
+                        digest.nullValue();
+                    }
+                } else {
+                    digest.beginMap();
+                    if (!writeEntity(componentMap.getEntityMapper(), value, digest, true)) {
+                        return false;
+                    }
+                    digest.endMap();
+                }
+            } else if (fieldMap instanceof CollectionMap) {
+                CollectionMap collectionMap = (CollectionMap) fieldMap;
+                Collection<?> items = (Collection<?>) getValue(fieldMap, entity);
+                if (items == null) {
+                    digest.absent();
+                    continue;
+                }
+                if (collectionMap.getPrimitiveType() == null && collectionMap.getEntityMapper().getInternalIdentifierFieldName() == null) {
+                    // toEntity cannot match the items, so it always replaces them
+                    digest.token(UNKEYED_TOKEN);
+                    continue;
+                }
+                digest.beginList(items.size());
+                for (Object item : items) {
+                    if (collectionMap.getPrimitiveType() != null) {
+                        if (!digest.value(item)) {
+                            return false;
+                        }
+                    } else if (item == null) {
+                        digest.nullValue();
+                    } else {
+                        digest.beginMap();
+                        if (!writeEntity(collectionMap.getEntityMapper(), item, digest, true)) {
+                            return false;
+                        }
+                        digest.endMap();
+                    }
+                }
+                digest.endList();
+            } else if (!digest.value(getValue(fieldMap, entity))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean writeRendered(EntityMapper<?> mapper, Object entity, FieldDigest digest) throws Exception {
+        for (FieldMap fieldMap : mapper.getFieldMaps()) {
+            if (!fieldMap.operationAllowed(EntityMapper.Operation.READ) || (fieldMap.isAttribute() && !(entity instanceof Attributed))) {
+                continue;
+            }
+
+            if (fieldMap.getClass() == ComponentMap.class) {
+                ComponentMap componentMap = (ComponentMap) fieldMap;
+                Object value;
+                if (componentMap.isForSubclass()) {
+                    if (!componentMap.getEntityMapper().getBaseClass().isInstance(entity)) {
+                        continue;
+                    }
+                    value = entity;
+                } else if (fieldMap.isAttribute() || PropertyUtils.isReadable(entity, fieldMap.getInternalFieldName())) {
+                    value = getValue(fieldMap, entity);
+                } else {
+                    continue;
+                }
+
+                if (!componentMap.isFlattened()) {
+                    digest.name(fieldMap.getExternalFieldName());
+                }
+                if (value == null) {
+                    if (!componentMap.isFlattened()) {
+                        digest.nullValue();
+                    }
+                    continue;
+                }
+                digest.beginMap();
+                if (!writeRendered(componentMap.getEntityMapper(), value, digest)) {
+                    return false;
+                }
+                digest.endMap();
+            } else if (fieldMap.getClass() == CollectionMap.class) {
+                CollectionMap collectionMap = (CollectionMap) fieldMap;
+                if (!PropertyUtils.isReadable(entity, fieldMap.getInternalFieldName()) || collectionMap.isLazy()) {
+                    continue;
+                }
+                Collection<?> items = (Collection<?>) getValue(fieldMap, entity);
+                digest.name(fieldMap.getExternalFieldName());
+                if (items == null) {
+                    digest.nullValue();
+                    continue;
+                }
+                digest.beginList(items.size());
+                for (Object item : items) {
+                    if (item == null) {
+                        continue;
+                    }
+                    if (collectionMap.getPrimitiveType() != null) {
+                        if (!digest.value(item)) {
+                            return false;
+                        }
+                    } else {
+                        digest.beginMap();
+                        if (!writeRendered(collectionMap.getEntityMapper(), item, digest)) {
+                            return false;
+                        }
+                        digest.endMap();
+                    }
+                }
+                digest.endList();
+            } else if (fieldMap.getClass() == SimpleFieldMap.class) {
+                Object value = getValue(fieldMap, entity);
+                if (fieldMap.getAccess() == FieldMap.Access.SENSITIVE && value != null && !"".equals(value)) {
+                    value = FieldMap.PASSWORD_MASK;
+                }
+                if (value != null) {
+                    digest.name(fieldMap.getExternalFieldName());
+                    if (!digest.value(value)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the field map is applied by toEntity on an UPDATE
+     */
+    private static boolean isApplied(FieldMap fieldMap) {
+        if (!fieldMap.operationAllowed(EntityMapper.Operation.UPDATE)) {
+            return false;
+        }
+        if (fieldMap.getClass() == ComponentMap.class) {
+            ComponentMap componentMap = (ComponentMap) fieldMap;
+            if (componentMap.isAttribute()) {
+                return true;
+            }
+            // non-updatable joins, and associations that are saved through their own mapping, are ignored
+            return componentMap.isJoin()
+                    ? componentMap.isCascadeUpdate()
+                    : !(componentMap.isCascadeUpdate() && componentMap.getEntityMapper().getExternalIdentifierFieldName() != null);
+        }
+        if (fieldMap.getClass() == CollectionMap.class) {
+            return !((CollectionMap) fieldMap).isJoin() || ((CollectionMap) fieldMap).isCascadeUpdate();
+        }
+        return fieldMap.getClass() == SimpleFieldMap.class;
+    }
+
+    /**
+     * @return true if the state of the field can be read from the entity without side effects
+     */
+    private static boolean isExposed(FieldMap fieldMap) {
+        if (fieldMap.getAccess() == FieldMap.Access.SENSITIVE || fieldMap.getAccess() == FieldMap.Access.WRITEONLY) {
+            return false;
+        }
+        if (fieldMap instanceof CollectionMap) {
+            CollectionMap collectionMap = (CollectionMap) fieldMap;
+            return !collectionMap.isLazy() && !(collectionMap.isJoin() && !collectionMap.isAttribute());
+        }
+        if (fieldMap instanceof ComponentMap) {
+            return !((ComponentMap) fieldMap).isJoin() || fieldMap.isAttribute();
+        }
+        return true;
+    }
+
+    private static Object getValue(FieldMap fieldMap, Object entity) throws Exception {
+        return fieldMap.isAttribute()
+                ? ((Attributed) entity).getAttribute(fieldMap.getInternalFieldName())
+                : PropertyUtils.getProperty(entity, fieldMap.getInternalFieldName());
+    }
+
+    /**
+     * Collects the fields of a flattened component from the map, as toEntity does
+     *
+     * @return the fields of the component or null if none is in the map
+     */
+    private static DataMap collectFlattenedFields(ComponentMap componentMap, Map<String, Object> map) {
+        DataMap componentMapData = null;
+        for (FieldMap componentFieldMap : (Collection<FieldMap>) componentMap.getEntityMapper().getFieldMaps()) {
+            if (map.containsKey(componentFieldMap.getExternalFieldName())) {
+                if (componentMapData == null) {
+                    componentMapData = new DataMap();
+                }
+                componentMapData.put(componentFieldMap.getExternalFieldName(), map.get(componentFieldMap.getExternalFieldName()));
+            }
+        }
+        return componentMapData;
+    }
+}
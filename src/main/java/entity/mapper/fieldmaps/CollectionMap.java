@@ -4,7 +4,7 @@ import entity.mapper.EntityMapper;
 import entity.mapper.metadata.ClassContext;
 import entity.mapper.metadata.FieldMetaData;
 import entity.mapper.metadata.FieldMetaDataList;
-import entity.mapper.metadata.ReflectorFactory;
+import entity.mapper.metadata.Reflector;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -15,6 +15,8 @@ import java.util.Collections;
 public class CollectionMap extends EntityFieldMap {
     protected Mode collectionMode;
     protected Class primitiveType;
+    private volatile boolean oneToMany;
+    private volatile boolean deleteOrphan;
 
     public enum Mode {
         EAGER, LAZY
@@ -49,6 +51,13 @@ public class CollectionMap extends EntityFieldMap {
         return collectionMode;
     }
 
+    /**
+     * @return true if the collection is not mapped with its owning entity, but only when requested through its sub-resource path
+     */
+    public boolean isLazy() {
+        return collectionMode == Mode.LAZY;
+    }
+
     public Class getPrimitiveType() {
         return primitiveType;
     }
@@ -162,24 +171,23 @@ public class CollectionMap extends EntityFieldMap {
     }
 
     public boolean isOneToMany() {
-        ReflectorFactory reflectorFactory = ReflectorFactory.getInstance();
-        FieldMetaDataList metaDataList = reflectorFactory.getReflector().getFieldListForClass(new ClassContext("", parentEntityMapper.getBaseClass()));
-        if (metaDataList != null) {
-            FieldMetaData fieldMetaData = metaDataList.getByInternalName(internalFieldName);
-            return fieldMetaData != null && fieldMetaData.getAttributes().contains(FieldMetaData.Attribute.ONE_TO_MANY);
-        }
-
-        return false;
+        return oneToMany;
     }
 
     public boolean isDeleteOrphan() {
-        ReflectorFactory reflectorFactory = ReflectorFactory.getInstance();
-        FieldMetaDataList metaDataList = reflectorFactory.getReflector().getFieldListForClass(new ClassContext("", parentEntityMapper.getBaseClass()));
-        if (metaDataList != null) {
-            FieldMetaData fieldMetaData = metaDataList.getByInternalName(internalFieldName);
-            return fieldMetaData != null && fieldMetaData.getAttributes().contains(FieldMetaData.Attribute.ORPHAN_DELETE);
-        }
+        return deleteOrphan;
+    }
 
-        return false;
+    @Override
+    public void bind(Reflector reflector) {
+        FieldMetaData fieldMetaData = null;
+        if (parentEntityMapper != null) {
+            FieldMetaDataList metaDataList = reflector.getFieldListForClass(new ClassContext("", parentEntityMapper.getBaseClass()));
+            if (metaDataList != null) {
+                fieldMetaData = metaDataList.getByInternalName(internalFieldName);
+            }
+        }
+        oneToMany = fieldMetaData != null && fieldMetaData.getAttributes().contains(FieldMetaData.Attribute.ONE_TO_MANY);
+        deleteOrphan = fieldMetaData != null && fieldMetaData.getAttributes().contains(FieldMetaData.Attribute.ORPHAN_DELETE);
     }
 }
\ No newline at end of file
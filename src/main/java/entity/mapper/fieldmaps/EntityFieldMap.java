@@ -39,6 +39,21 @@ public abstract class EntityFieldMap extends FieldMap {
         }
     }
 
+    /**
+     * Copies the field map for a copy of its mapper (see EntityMapper.copy())
+     *
+     * @param entityMapper the copy of the nested mapper
+     * @return the copy, holding the copy of the nested mapper
+     */
+    public EntityFieldMap copy(EntityMapper entityMapper) {
+        EntityFieldMap copy = (EntityFieldMap) copy();
+        copy.entityMapper = entityMapper;
+        if (entityMapper != null) {
+            entityMapper.setParentFieldMap(copy);
+        }
+        return copy;
+    }
+
     public boolean isCascadeDelete() {
         return cascade == Cascade.DELETE || cascade == Cascade.ALL;
     }
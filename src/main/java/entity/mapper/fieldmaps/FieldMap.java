@@ -1,11 +1,12 @@
 package entity.mapper.fieldmaps;
 
 import entity.mapper.EntityMapper;
+import entity.mapper.metadata.Reflector;
 
 /**
  * Defines a field map
  */
-public abstract class FieldMap {
+public abstract class FieldMap implements Cloneable {
     public final static String PASSWORD_MASK = "������";
 
     protected String internalFieldName;
@@ -92,6 +93,30 @@ public abstract class FieldMap {
         this.parentEntityMapper = parentEntityMapper;
     }
 
+    /**
+     * Resolves the properties of the field map that depend on the reflector metadata, so that they are not looked up on every mapping.
+     * Called when the mapper owning the field map, and when the mapper owning that mapper, are built.
+     *
+     * @param reflector the reflector providing the metadata
+     */
+    public void bind(Reflector reflector) {
+    }
+
+    /**
+     * Copies the field map for a copy of its mapper (see EntityMapper.copy()). The copy is not bound to a mapper.
+     *
+     * @return the copy
+     */
+    public FieldMap copy() {
+        try {
+            FieldMap copy = (FieldMap) clone();
+            copy.parentEntityMapper = null;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public String getInternalPath() {
         return getParentEntityMapper() == null || getParentEntityMapper().getParentFieldMap() == null ? getInternalFieldName() : (getParentEntityMapper().getParentFieldMap().getInternalPath() + "." + getInternalFieldName());
     }
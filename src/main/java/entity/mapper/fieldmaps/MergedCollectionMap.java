@@ -23,9 +23,14 @@ public class MergedCollectionMap extends CollectionMap {
     ) {
         super(externalFieldName, externalFieldName, null, false, collectionMode, access, exclusive, entityMapper, null, null, null, null);
         this.indexedByFieldName = indexedByFieldName;
+        mergeChildCollectionMaps();
+    }
 
-        // Make all fields of child collection maps visible on this map's entity mapper.
-        // This is to allow resolution of lazy-loading paths which will not be aware of the child collection maps.
+    /**
+     * Make all fields of child collection maps visible on this map's entity mapper.
+     * This is to allow resolution of lazy-loading paths which will not be aware of the child collection maps.
+     */
+    private void mergeChildCollectionMaps() {
         List<FieldMap> childMaps = new ArrayList<>(entityMapper.getFieldMaps());
         for (FieldMap childMap : childMaps) {
             if (childMap instanceof CollectionMap) {
@@ -35,6 +40,16 @@ public class MergedCollectionMap extends CollectionMap {
         }
     }
 
+    /**
+     * The copy of the mapper holds the copies of the child collection maps, whose fields are merged again
+     */
+    @Override
+    public EntityFieldMap copy(EntityMapper entityMapper) {
+        MergedCollectionMap copy = (MergedCollectionMap) super.copy(entityMapper);
+        copy.mergeChildCollectionMaps();
+        return copy;
+    }
+
     /**
      * Return a field map provider that will provide a MergedCollectionMap
      *
@@ -4,11 +4,14 @@ import entity.mapper.EntityMapper;
 import entity.mapper.metadata.ClassContext;
 import entity.mapper.metadata.FieldMetaData;
 import entity.mapper.metadata.FieldMetaDataList;
+import entity.mapper.metadata.Reflector;
 import entity.mapper.metadata.ReflectorFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,14 +36,14 @@ public class ReflectionMap {
         @Override
         public Collection<? extends FieldMap> getFieldMaps() {
 
-            ReflectorFactory reflectorFactory = ReflectorFactory.getInstance();
+            Reflector reflector = ReflectorFactory.getInstance().getReflector(objectClass);
             ClassContext classContext = new ClassContext("", objectClass);
-            FieldMetaDataList metaDataList = reflectorFactory.getReflector().getFieldListForClass(classContext);
+            FieldMetaDataList metaDataList = reflector.getFieldListForClass(classContext);
 
             final int maximumDepth = 4;
             int currentDepth = 0;
             List<FieldMap> fieldMap = new ArrayList<>();
-            List<FieldMapProvider> fieldMapProviders = translateMetaDataToFieldMap(classContext, reflectorFactory, metaDataList, currentDepth, maximumDepth);
+            List<FieldMapProvider> fieldMapProviders = translateMetaDataToFieldMap(reflector, metaDataList, currentDepth, maximumDepth, new HashMap<>());
             fieldMapProviders.forEach(provider -> {
                 fieldMap.addAll(provider.getFieldMaps());
             });
@@ -48,7 +51,8 @@ public class ReflectionMap {
 
         }
 
-        private List<FieldMapProvider> translateMetaDataToFieldMap(final ClassContext classContext, ReflectorFactory reflectorFactory, FieldMetaDataList metaDataList, final int depth, final int maximumDepth) {
+        private List<FieldMapProvider> translateMetaDataToFieldMap(Reflector reflector, FieldMetaDataList metaDataList, final int depth, final int maximumDepth,
+                                                                   Map<ReflectedClassKey, EntityMapper> mappers) {
             final int nextDepth = depth + 1;
             List<FieldMapProvider> fieldMaps = new ArrayList<>();
             metaDataList.getMembers().forEach((metaData) -> {
@@ -57,24 +61,12 @@ public class ReflectionMap {
                         if (metaData.getAttributes().contains(FieldMetaData.Attribute.SIMPLE)) {
                             // TODO - Need to complete
                         } else {
-                            FieldMetaDataList childMetaDataList = reflectorFactory.getReflector().getFieldListForClass(metaData.getClassContext());
-                            List<FieldMapProvider> childFieldMapList = translateMetaDataToFieldMap(metaData.getClassContext(), reflectorFactory, childMetaDataList, nextDepth, maximumDepth);
-
-                            fieldMaps.add(CollectionMap.collection(metaData.getInternalName(), CollectionMap.Mode.LAZY,
-                                    EntityMapper.entity(metaData.getClassContext().getTail().getClazz()).map(
-                                            childFieldMapList.toArray(new FieldMapProvider[childFieldMapList.size()])
-                                    ).build())
-                            );
+                            fieldMaps.add(CollectionMap.collection(metaData.getInternalName(), CollectionMap.Mode.EAGER,
+                                    reflectMapper(metaData, reflector, nextDepth, maximumDepth, mappers)));
                         }
                     } else if ((metaData.getAttributes().contains(FieldMetaData.Attribute.COMPONENT) || metaData.getAttributes().contains(FieldMetaData.Attribute.MANY_TO_ONE) || metaData.getAttributes().contains(FieldMetaData.Attribute.ONE_TO_MANY)) && depth < maximumDepth) {
-                        FieldMetaDataList childMetaDataList = reflectorFactory.getReflector().getFieldListForClass(metaData.getClassContext());
-                        List<FieldMapProvider> childFieldMapList = translateMetaDataToFieldMap(metaData.getClassContext(), reflectorFactory, childMetaDataList, nextDepth, maximumDepth);
-
                         fieldMaps.add(ComponentMap.component(metaData.getInternalName(),
-                                EntityMapper.entity(metaData.getClassContext().getTail().getClazz()).map(
-                                        childFieldMapList.toArray(new FieldMapProvider[childFieldMapList.size()])
-                                ).build())
-                        );
+                                reflectMapper(metaData, reflector, nextDepth, maximumDepth, mappers)));
                     } else if (metaData.getAttributes().contains(FieldMetaData.Attribute.SIMPLE) && depth < maximumDepth) {
                         fieldMaps.add(SimpleFieldMap.fieldMap(metaData.getInternalName(), metaData.getExternalName(), null, false, metaData.getAttributes().contains(FieldMetaData.Attribute.PRIMARY_KEY), false, FieldMap.Access.FULL, false, null));
                     }
@@ -85,5 +77,52 @@ public class ReflectionMap {
             });
             return fieldMaps;
         }
+
+        /**
+         * Returns the mapper of the class of a component or collection field, reflecting the class once per depth. The mapper is shared by
+         * all the fields of the class at that depth, so a type used by many fields, or reached again through a bidirectional association,
+         * is not expanded again. The depth bounds the expansion of cycles. A mapper shared by fields with and without the one-to-many
+         * attribute would bind its identifier differently (see SimpleFieldMap.bind()), so the attribute is part of the key.
+         */
+        private EntityMapper reflectMapper(FieldMetaData metaData, Reflector reflector, int depth, int maximumDepth, Map<ReflectedClassKey, EntityMapper> mappers) {
+            Class childClass = metaData.getClassContext().getTail().getClazz();
+            ReflectedClassKey key = new ReflectedClassKey(childClass, depth, metaData.getAttributes().contains(FieldMetaData.Attribute.ONE_TO_MANY));
+            EntityMapper mapper = mappers.get(key);
+            if (mapper == null) {
+                // the class is reflected on its own, as its fields do not depend on the path it was reached through
+                FieldMetaDataList childMetaDataList = reflector.getFieldListForClass(new ClassContext("", childClass));
+                List<FieldMapProvider> childFieldMapList = translateMetaDataToFieldMap(reflector, childMetaDataList, depth, maximumDepth, mappers);
+                mapper = EntityMapper.entity(childClass).map(
+                        childFieldMapList.toArray(new FieldMapProvider[childFieldMapList.size()])
+                ).build();
+                mappers.put(key, mapper);
+            }
+            return mapper;
+        }
+    }
+
+    private static class ReflectedClassKey {
+        private final Class clazz;
+        private final int depth;
+        private final boolean oneToMany;
+
+        ReflectedClassKey(Class clazz, int depth, boolean oneToMany) {
+            this.clazz = clazz;
+            this.depth = depth;
+            this.oneToMany = oneToMany;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ReflectedClassKey)) return false;
+            ReflectedClassKey that = (ReflectedClassKey) o;
+            return clazz == that.clazz && depth == that.depth && oneToMany == that.oneToMany;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * clazz.hashCode() + depth) + (oneToMany ? 1 : 0);
+        }
     }
 }
\ No newline at end of file
@@ -3,7 +3,7 @@ package entity.mapper.fieldmaps;
 import entity.mapper.metadata.ClassContext;
 import entity.mapper.metadata.FieldMetaData;
 import entity.mapper.metadata.FieldMetaDataList;
-import entity.mapper.metadata.ReflectorFactory;
+import entity.mapper.metadata.Reflector;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -18,6 +18,7 @@ public class SimpleFieldMap extends FieldMap {
     private boolean identifier;
     private boolean entityName;
     private Object defaultValue;
+    private volatile boolean implicitlyExclusive;
 
     protected SimpleFieldMap(String internalFieldName, String externalFieldName) {
         this(internalFieldName, externalFieldName, null, false, false, false, Access.FULL, false, null);
@@ -89,20 +90,27 @@ public class SimpleFieldMap extends FieldMap {
 
     @Override
     public boolean isExclusive() {
-        if (super.isExclusive()) {
-            return true;
-        }
+        return super.isExclusive() || implicitlyExclusive;
+    }
+
+    /**
+     * @return true if the field map was declared exclusive, ignoring the implicit exclusivity of identifiers
+     */
+    public boolean isDeclaredExclusive() {
+        return super.isExclusive();
+    }
 
+    @Override
+    public void bind(Reflector reflector) {
         // Identifiers fields in a one-to-many component are implicitly exclusive
-        ReflectorFactory reflectorFactory = ReflectorFactory.getInstance();
-        if (identifier && parentEntityMapper.getParentFieldMap() != null) {
-            FieldMetaDataList metaDataList = reflectorFactory.getReflector().getFieldListForClass(new ClassContext("", parentEntityMapper.getParentFieldMap().getParentEntityMapper().getBaseClass()));
+        implicitlyExclusive = false;
+        if (identifier && parentEntityMapper != null && parentEntityMapper.getParentFieldMap() != null
+                && parentEntityMapper.getParentFieldMap().getParentEntityMapper() != null) {
+            FieldMetaDataList metaDataList = reflector.getFieldListForClass(new ClassContext("", parentEntityMapper.getParentFieldMap().getParentEntityMapper().getBaseClass()));
             if (metaDataList != null) {
                 FieldMetaData fieldMetaData = metaDataList.getByInternalName(parentEntityMapper.getParentFieldMap().getInternalFieldName());
-                return fieldMetaData != null && fieldMetaData.getAttributes().contains(FieldMetaData.Attribute.ONE_TO_MANY);
+                implicitlyExclusive = fieldMetaData != null && fieldMetaData.getAttributes().contains(FieldMetaData.Attribute.ONE_TO_MANY);
             }
         }
-
-        return false;
     }
 }
\ No newline at end of file
@@ -1,13 +1,13 @@
 package entity.mapper.handlers;
 
-import entity.mapper.Attributed;
-import entity.mapper.EntityCollectionDataMapping;
-import entity.mapper.EntityDataMapping;
-import entity.mapper.EntityMapper;
+import entity.mapper.*;
 import entity.mapper.datamap.DataMap;
+import entity.mapper.datamap.PrimitiveArrayList;
 import entity.mapper.field.convert.FieldConverter;
 import entity.mapper.fieldmaps.CollectionMap;
 import entity.session.SessionContext;
+import org.apache.commons.beanutils.ConversionException;
+import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.beanutils.PropertyUtils;
 
 import java.beans.PropertyDescriptor;
@@ -27,8 +27,16 @@ public class CollectionMapHandler implements MapHandler<CollectionMap> {
         if (value == null) {
             return;
         }
-        if (!(value instanceof List)) {
-            throw new IllegalArgumentException("Value should be a List");
+        if (!(value instanceof List) && !(value instanceof Iterator)) {
+            // primitive collections may also be supplied as int[], long[] or double[]
+            value = PrimitiveArrayList.wrap(value);
+            if (value == null) {
+                throw new IllegalArgumentException("Value should be a List or an Iterator");
+            }
+            Class elementType = ((PrimitiveArrayList<?>) value).getElementType();
+            if (elementType != fieldMap.getPrimitiveType()) {
+                throw new IllegalArgumentException(String.format("An array of %s cannot be mapped to %s", elementType.getSimpleName(), fieldMap.getExternalPath()));
+            }
         }
         if (!fieldMap.operationAllowed(operation)) {
             return;
@@ -44,7 +52,9 @@ public class CollectionMapHandler implements MapHandler<CollectionMap> {
 
         if (fieldMap.isJoin() && !fieldMap.isAttribute()) {
             if (deferredEntityDataMappings != null) {
-                deferredEntityDataMappings.add(new EntityCollectionDataMapping(fieldMap, (List) value));
+                deferredEntityDataMappings.add(value instanceof Iterator
+                        ? new EntityCollectionDataMapping(fieldMap, (Iterator<DataMap>) value)
+                        : new EntityCollectionDataMapping(fieldMap, (List<DataMap>) value));
             }
             return;
         }
@@ -77,72 +87,176 @@ public class CollectionMapHandler implements MapHandler<CollectionMap> {
         // so removing the null from the existing collection will fix the collection
         if (existingCollection != null) {
             if (existingCollection.removeIf(Objects::isNull)) {
-                modified.set(true);
+                ChangeSet.markModified(modified, fieldMap, existingCollection, collection);
             }
         }
 
-        List newCollection = (List) value;
-
-        // check if the collection has been modified
-        if (modified != null) {
+        // A list is checked for modifications up front. Streamed items are compared with the existing items as they arrive.
+        if (value instanceof List) {
+            List newCollection = (List) value;
             if (fieldMap.getPrimitiveType() != null) {
-                if (!Objects.equals(newCollection != null ? new ArrayList<>(newCollection) : null, existingCollection != null ? new ArrayList<>(existingCollection) : null)) {
-                    modified.set(true);
+                if (modified != null && !primitiveCollectionEquals(newCollection, existingCollection)) {
+                    ChangeSet.markModified(modified, fieldMap, existingCollection, collection);
                 }
-            } else if (fieldMap.getEntityMapper().getInternalIdentifierFieldName() == null) {
-                // cannot compare the list without a identifier so assumes the list changed
-                modified.set(true);
-            } else if (newCollection == null || existingCollection == null) {
-                if (!(newCollection == null && existingCollection == null)) {
-                    modified.set(true);
+                collection.addAll(newCollection);
+                return;
+            }
+            if (modified != null && !entityCollectionKeysEqual(fieldMap, newCollection, existingCollection)) {
+                ChangeSet.markModified(modified, fieldMap, existingCollection, collection);
+            }
+            addEntityItems(fieldMap, newCollection.iterator(), null, collection, existingCollection, parentDataMap, operation,
+                    preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+        } else {
+            Iterator existingIterator = existingCollection != null ? existingCollection.iterator() : null;
+            if (fieldMap.getPrimitiveType() != null) {
+                boolean unchanged = existingIterator != null;
+                for (Iterator newItems = (Iterator) value; newItems.hasNext(); ) {
+                    Object item = newItems.next();
+                    unchanged = unchanged && existingIterator.hasNext() && Objects.equals(item, existingIterator.next());
+                    collection.add(item);
                 }
-            } else if (newCollection.size() != existingCollection.size()) {
-                modified.set(true);
-            } else {
-                List existingList = new ArrayList(existingCollection);
-                for (int index = 0; index < existingCollection.size(); index++) {
-                    Object newItem = newCollection.get(index);
-                    Object existingItem = existingList.get(index);
-                    Object newKey = PropertyUtils.getProperty(newItem, fieldMap.getEntityMapper().getInternalIdentifierFieldName());
-                    Object existingKey = PropertyUtils.getProperty(existingItem, fieldMap.getEntityMapper().getInternalIdentifierFieldName());
-                    if (!Objects.equals(newKey, existingKey)) {
-                        modified.set(true);
-                        break;
-                    }
+                if (modified != null && !(unchanged && !existingIterator.hasNext())) {
+                    ChangeSet.markModified(modified, fieldMap, existingCollection, collection);
                 }
+                return;
+            }
+            if (modified == null || fieldMap.getEntityMapper().getInternalIdentifierFieldName() == null || existingIterator == null) {
+                // cannot compare the items without a identifier so assumes the collection changed
+                ChangeSet.markModified(modified, fieldMap, existingCollection, collection);
+                existingIterator = null;
             }
+            addEntityItems(fieldMap, (Iterator) value, existingIterator, collection, existingCollection, parentDataMap, operation,
+                    preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
         }
+    }
 
-        collection:
-        for (Object item : newCollection) {
-            if (fieldMap.getPrimitiveType() != null) {
-                collection.add(item);
-            } else {
-                DataMap itemMap = (DataMap) item;
-                if (itemMap != null) {
-                    itemMap.setParent(parentDataMap);
-                }
+    /**
+     * Converts the new items of an entity collection one at a time and adds them to the target collection.
+     * An item is merged into the existing item with the same identifier, if any.
+     *
+     * @param existingIterator if not null, the new items are compared by identifier with the existing items in order and modified is set on any difference
+     */
+    private void addEntityItems(CollectionMap fieldMap, Iterator<?> newItems, Iterator<?> existingIterator, Collection collection, Collection existingCollection,
+                                         DataMap parentDataMap, EntityMapper.Operation operation, Collection<EntityDataMapping> preemptedEntityDataMappings,
+                                         Collection<EntityDataMapping> deferredEntityDataMappings, FieldConverter fieldConverter, AtomicBoolean modified) throws Exception {
+        EntityMapper itemMapper = fieldMap.getEntityMapper();
+        String internalIdentifierFieldName = itemMapper.getInternalIdentifierFieldName();
+        // To allow for partial mapping or lazy loading of items in a collection, update and reuse an existing item based on a key search.
+        String identifierFieldName = itemMapper.getExternalIdentifierFieldName();
+        Map<Object, Object> existingItemsByKey = null;
+
+        boolean unchanged = existingIterator != null;
+        while (newItems.hasNext()) {
+            DataMap itemMap = (DataMap) newItems.next();
+            if (unchanged) {
+                unchanged = existingIterator.hasNext() && itemMap != null
+                        && Objects.equals(itemKey(itemMapper, itemMap), PropertyUtils.getProperty(existingIterator.next(), internalIdentifierFieldName));
+            }
+
+            if (itemMap == null) {
+                // a null item is kept as a null element of the collection
+                collection.add(null);
+                continue;
+            }
+            itemMap.setParent(parentDataMap);
 
-                // To allow for partial mapping or lazy loading of newCollection in a collection, update and reuse an existing item based on a key search.
-                String identifierFieldName = fieldMap.getEntityMapper().getExternalIdentifierFieldName();
-                if (identifierFieldName != null) {
-                    Object key = itemMap.get(identifierFieldName);
-                    if (key != null && existingCollection != null) {
-                        for (Object existingItem : existingCollection) {
-                            Object existingKey = PropertyUtils.getProperty(existingItem, fieldMap.getEntityMapper().getInternalIdentifierFieldName());
-                            if (existingKey.equals(key)) {
-                                fieldMap.getEntityMapper().toEntity(itemMap, existingItem, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
-                                collection.add(existingItem);
-                                continue collection;
-                            }
+            if (identifierFieldName != null && existingCollection != null) {
+                Object key = itemMap.get(identifierFieldName);
+                if (key != null) {
+                    if (existingItemsByKey == null) {
+                        existingItemsByKey = indexByKey(existingCollection, internalIdentifierFieldName);
+                    }
+                    Object existingItem = existingItemsByKey.get(key);
+                    if (existingItem != null) {
+                        ChangeSet.beginItem(modified, fieldMap, key);
+                        try {
+                            itemMapper.toEntity(itemMap, existingItem, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+                        } finally {
+                            ChangeSet.endItem(modified);
                         }
+                        collection.add(existingItem);
+                        continue;
                     }
                 }
+            }
+
+            collection.add(itemMapper.toEntity(itemMap, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter));
+        }
+
+        if (existingIterator != null && !(unchanged && !existingIterator.hasNext())) {
+            ChangeSet.markModified(modified, fieldMap, existingCollection, collection);
+        }
+    }
+
+    /**
+     * Compares the identifiers of a list of new items with those of the existing items in order
+     *
+     * @return false if the collection cannot be compared, or the identifiers differ
+     */
+    private boolean entityCollectionKeysEqual(CollectionMap fieldMap, List newCollection, Collection existingCollection) throws Exception {
+        String internalIdentifierFieldName = fieldMap.getEntityMapper().getInternalIdentifierFieldName();
+        // cannot compare the list without a identifier so assumes the list changed
+        if (internalIdentifierFieldName == null || existingCollection == null || newCollection.size() != existingCollection.size()) {
+            return false;
+        }
+        Iterator existingIterator = existingCollection.iterator();
+        for (Object newItem : newCollection) {
+            // the existing collection holds no null items
+            if (newItem == null) {
+                return false;
+            }
+            Object newKey = itemKey(fieldMap.getEntityMapper(), (DataMap) newItem);
+            Object existingKey = PropertyUtils.getProperty(existingIterator.next(), internalIdentifierFieldName);
+            if (!Objects.equals(newKey, existingKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the identifier of a new item, which is keyed by the external field names
+     */
+    private Object itemKey(EntityMapper itemMapper, DataMap itemMap) {
+        String identifierFieldName = itemMapper.getExternalIdentifierFieldName();
+        return identifierFieldName != null ? itemMap.get(identifierFieldName) : null;
+    }
+
+    private Map<Object, Object> indexByKey(Collection existingCollection, String internalIdentifierFieldName) throws Exception {
+        Map<Object, Object> existingItemsByKey = new HashMap<>();
+        for (Object existingItem : existingCollection) {
+            Object existingKey = PropertyUtils.getProperty(existingItem, internalIdentifierFieldName);
+            if (existingKey != null) {
+                existingItemsByKey.putIfAbsent(existingKey, existingItem);
+            }
+        }
+        return existingItemsByKey;
+    }
 
-                Object object = fieldMap.getEntityMapper().toEntity(itemMap, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter);
-                collection.add(object);
+    /**
+     * Compares a primitive collection element by element, without copying either side.
+     *
+     * @param newCollection      the collection from the map
+     * @param existingCollection the collection currently held by the target (may be null)
+     * @return true if both collections contain the same values in the same order
+     */
+    private boolean primitiveCollectionEquals(List newCollection, Collection existingCollection) {
+        if (existingCollection == null) {
+            return false;
+        }
+        if (newCollection instanceof PrimitiveArrayList) {
+            return ((PrimitiveArrayList<?>) newCollection).contentEquals(existingCollection);
+        }
+        if (newCollection.size() != existingCollection.size()) {
+            return false;
+        }
+        Iterator existingIterator = existingCollection.iterator();
+        for (Object item : newCollection) {
+            if (!Objects.equals(item, existingIterator.next())) {
+                return false;
             }
         }
+        return true;
     }
 
     @Override
@@ -151,6 +265,11 @@ public class CollectionMapHandler implements MapHandler<CollectionMap> {
             return;
         }
 
+        // Lazy collections are not read with their owner (which would load them), they are mapped on demand through their sub-resource path
+        if (fieldMap.isLazy()) {
+            return;
+        }
+
         Object propertyValue;
         if (fieldMap.isAttribute()) {
             if (!(source instanceof Attributed)) {
@@ -167,8 +286,119 @@ public class CollectionMapHandler implements MapHandler<CollectionMap> {
         if (!(propertyValue instanceof Collection)) {
             throw new IllegalArgumentException("Source " + fieldMap.getInternalFieldName() + " is not a collection type");
         }
-        Collection<Object> collection = (Collection) propertyValue;
-        List<Object> list = new ArrayList<>();
+        targetMap.put(fieldMap.getExternalFieldName(), mapItems(fieldMap, (Collection) propertyValue, sessionContext));
+    }
+
+    /**
+     * Handle mapping a window of a collection to a map
+     *
+     * @param fieldMap       Collection map of the collection
+     * @param source         Entity data owning the collection
+     * @param window         The window of the collection to be mapped
+     * @param sessionContext Session Context. If it is a CollectionWindowLoader, it is used to fetch the window.
+     * @return a map containing the mapped window items and the total size of the collection
+     * @throws Exception
+     */
+    public DataMap handleObjectToWindowedMap(CollectionMap fieldMap, Object source, CollectionWindow window, SessionContext sessionContext) throws Exception {
+        if (!fieldMap.operationAllowed(EntityMapper.Operation.READ)) {
+            throw new EntityMapperException("Collection " + fieldMap.getExternalFieldName() + " is not readable");
+        }
+        if (window.isKeyset() && fieldMap.getEntityMapper() != null && fieldMap.getEntityMapper().getInternalIdentifierFieldName() == null) {
+            throw new EntityMapperException("Collection " + fieldMap.getExternalFieldName() + " has no identifier to window by");
+        }
+
+        List<?> items = null;
+        long total = 0;
+        if (sessionContext instanceof CollectionWindowLoader && !fieldMap.isAttribute()) {
+            CollectionWindowLoader loader = (CollectionWindowLoader) sessionContext;
+            items = loader.loadWindow(source, fieldMap, window);
+            if (items != null) {
+                total = loader.countCollection(source, fieldMap);
+            }
+        }
+
+        if (items == null) {
+            Object propertyValue = fieldMap.isAttribute()
+                    ? (source instanceof Attributed ? ((Attributed) source).getAttribute(fieldMap.getInternalFieldName()) : null)
+                    : PropertyUtils.getProperty(source, fieldMap.getInternalFieldName());
+            if (propertyValue != null && !(propertyValue instanceof Collection)) {
+                throw new IllegalArgumentException("Source " + fieldMap.getInternalFieldName() + " is not a collection type");
+            }
+            Collection<?> collection = propertyValue == null ? Collections.emptyList() : (Collection) propertyValue;
+            total = collection.size();
+            items = slice(fieldMap, collection, window);
+        }
+
+        DataMap targetMap = new DataMap();
+        targetMap.put(CollectionWindow.ITEMS_KEY, mapItems(fieldMap, items, sessionContext));
+        targetMap.put(CollectionWindow.TOTAL_KEY, total);
+        return targetMap;
+    }
+
+    private List<?> slice(CollectionMap fieldMap, Collection<?> collection, CollectionWindow window) throws Exception {
+        // the items of an unordered collection may be iterated in another order for the next window
+        if (!(collection instanceof List || collection instanceof SortedSet || collection instanceof LinkedHashSet)) {
+            throw new IllegalArgumentException(String.format("Collection %s is not ordered, so it cannot be windowed", fieldMap.getExternalPath()));
+        }
+        if (!window.isKeyset()) {
+            if (collection instanceof List) {
+                int fromIndex = Math.min(window.getOffset(), collection.size());
+                return ((List<?>) collection).subList(fromIndex, (int) Math.min((long) fromIndex + window.getLimit(), collection.size()));
+            }
+            return collection.stream().skip(window.getOffset()).limit(window.getLimit()).collect(Collectors.toList());
+        }
+
+        Object afterId = toIdentifierType(fieldMap, window.getAfterId());
+        String internalIdentifierFieldName = fieldMap.getPrimitiveType() != null ? null : fieldMap.getEntityMapper().getInternalIdentifierFieldName();
+        List<Object> items = new ArrayList<>(Math.min(window.getLimit(), collection.size()));
+        boolean inWindow = false;
+        for (Object item : collection) {
+            if (inWindow) {
+                if (items.size() >= window.getLimit()) {
+                    break;
+                }
+                items.add(item);
+            } else if (item != null) {
+                Object key = internalIdentifierFieldName == null ? item : PropertyUtils.getProperty(item, internalIdentifierFieldName);
+                inWindow = afterId.equals(key);
+            }
+        }
+        if (!inWindow) {
+            throw new IllegalArgumentException(String.format("Item %s of collection %s not found", window.getAfterId(), fieldMap.getExternalPath()));
+        }
+        return items;
+    }
+
+    /**
+     * Converts an identifier to the type of the identifiers of a collection, e.g. an Integer parsed from JSON to the Long identifier of an entity
+     */
+    private Object toIdentifierType(CollectionMap fieldMap, Object identifier) {
+        Class identifierType = fieldMap.getPrimitiveType() != null ? fieldMap.getPrimitiveType() : fieldMap.getEntityMapper().getExternalIdentifierFieldType();
+        if (identifierType == null || identifierType.isInstance(identifier)) {
+            return identifier;
+        }
+        Object converted;
+        try {
+            converted = ConvertUtils.convert(identifier, identifierType);
+        } catch (ConversionException e) {
+            throw new IllegalArgumentException(String.format("Identifier %s of collection %s is not a %s", identifier, fieldMap.getExternalPath(), identifierType.getSimpleName()), e);
+        }
+        if (!identifierType.isInstance(converted)) {
+            throw new IllegalArgumentException(String.format("Identifier %s of collection %s is not a %s", identifier, fieldMap.getExternalPath(), identifierType.getSimpleName()));
+        }
+        return converted;
+    }
+
+    private List<?> mapItems(CollectionMap fieldMap, Collection<?> collection, SessionContext sessionContext) {
+        // Numeric primitive collections are held in a primitive array rather than a list of boxed values, unless they hold nulls, which are skipped
+        if (fieldMap.getPrimitiveType() != null && collection.stream().allMatch(Objects::nonNull)) {
+            List<?> values = PrimitiveArrayList.copyOf(fieldMap.getPrimitiveType(), collection);
+            if (values != null) {
+                return values;
+            }
+        }
+
+        List<Object> list = new ArrayList<>(collection.size());
         for (Object object : collection) {
             if (object == null) {
                 continue;
@@ -179,8 +409,7 @@ public class CollectionMapHandler implements MapHandler<CollectionMap> {
                 list.add(fieldMap.getEntityMapper().toMap(object, sessionContext));
             }
         }
-
-        targetMap.put(fieldMap.getExternalFieldName(), list);
+        return list;
     }
 
     @Override
@@ -58,8 +58,9 @@ public class ComponentMapHandler implements MapHandler<ComponentMap> {
                 } else {
                     if (!fieldMap.isForSubclass()) {
                         if (modified != null) {
-                            if (PropertyUtils.getProperty(target, fieldMap.getInternalFieldName()) != null) {
-                                modified.set(true);
+                            Object currentValue = PropertyUtils.getProperty(target, fieldMap.getInternalFieldName());
+                            if (currentValue != null) {
+                                ChangeSet.markModified(modified, fieldMap, currentValue, null);
                             }
                         }
                         PropertyUtils.setProperty(target, fieldMap.getInternalFieldName(), null);
@@ -104,7 +105,12 @@ public class ComponentMapHandler implements MapHandler<ComponentMap> {
 
             if (fieldMap.isForSubclass()) {
                 if (fieldMap.getEntityMapper().getBaseClass().isInstance(target)) {
-                    fieldMap.getEntityMapper().toEntity(dataMap, target, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+                    ChangeSet.beginComponent(modified, fieldMap);
+                    try {
+                        fieldMap.getEntityMapper().toEntity(dataMap, target, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+                    } finally {
+                        ChangeSet.endComponent(modified);
+                    }
                 }
                 return;
             }
@@ -116,28 +122,30 @@ public class ComponentMapHandler implements MapHandler<ComponentMap> {
         if (currentValue == null || (!fieldMap.isCascadeDelete() && !fieldMap.isCascadeUpdate() && StringUtils.isNotBlank(fieldMap.getEntityMapper().getInternalIdentifierFieldName()))) {
 
             // in this case only compare the id to check if it has been modified
+            // in case the current value is null it is modified as it is creating a new instance and assigning to the entity data
+            boolean componentModified = false;
             if (modified != null) {
                 Object identifierA = currentValue != null ? PropertyUtils.getProperty(currentValue, fieldMap.getEntityMapper().getInternalIdentifierFieldName()) : null;
                 Object identifierB = dataMap != null ? dataMap.get(fieldMap.getEntityMapper().getInternalIdentifierFieldName()) : null;
-
-                if (!Objects.equals(identifierA, identifierB)) {
-                    modified.set(true);
-                }
-            }
-
-            // in case the current value is null it needs to set modified to true as it is creating a new instance and assigning to the entity data
-            if (currentValue == null && modified != null) {
-                modified.set(true);
+                componentModified = currentValue == null || !Objects.equals(identifierA, identifierB);
             }
 
             Object newValue = fieldMap.getEntityMapper().toEntity(dataMap, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter);
+            if (componentModified) {
+                ChangeSet.markModified(modified, fieldMap, currentValue, newValue);
+            }
             if (fieldMap.isAttribute()) {
                 ((Attributed) target).setAttribute(fieldMap.getInternalFieldName(), newValue);
             } else {
                 PropertyUtils.setProperty(target, fieldMap.getInternalFieldName(), newValue);
             }
         } else {
-            fieldMap.getEntityMapper().toEntity(dataMap, currentValue, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+            ChangeSet.beginComponent(modified, fieldMap);
+            try {
+                fieldMap.getEntityMapper().toEntity(dataMap, currentValue, operation, preemptedEntityDataMappings, deferredEntityDataMappings, fieldConverter, modified);
+            } finally {
+                ChangeSet.endComponent(modified);
+            }
         }
     }
 
@@ -1,6 +1,7 @@
 package entity.mapper.handlers;
 
 import entity.mapper.Attributed;
+import entity.mapper.ChangeSet;
 import entity.mapper.EntityDataMapping;
 import entity.mapper.EntityMapper;
 import entity.mapper.datamap.DataMap;
@@ -44,8 +45,9 @@ public class SimpleFieldMapHandler implements MapHandler<SimpleFieldMap> {
             }
         } else {
             if (modified != null && !fieldMap.getInternalFieldName().equals("version")) {
-                if (!objectEquals(PropertyUtils.getProperty(target, fieldMap.getInternalFieldName()), value)) {
-                    modified.set(true);
+                Object currentValue = PropertyUtils.getProperty(target, fieldMap.getInternalFieldName());
+                if (!objectEquals(currentValue, value)) {
+                    ChangeSet.markModified(modified, fieldMap, currentValue, value);
                 }
             }
             PropertyUtils.setProperty(target, fieldMap.getInternalFieldName(), value);
@@ -0,0 +1,159 @@
+package entity.mapper.metadata;
+
+import entity.mapper.fieldmaps.EntityFieldMap;
+import javafx.beans.property.Property;
+
+import java.util.Objects;
+
+/**
+ * Reflector decorator that caches the field metadata of another reflector.
+ * <p>
+ * Field lists are cached by ClassContext and field metadata by class and field name, so after warm-up
+ * a lookup costs a single concurrent map read. The cached FieldMetaDataLists are immutable and can be shared.
+ * The caches are held in ClassCaches under the root class of the lookup, so they do not prevent redeployed classes from being unloaded.
+ * If the metadata of a class changes while the class stays loaded, the cache must be invalidated explicitly.
+ * <p>
+ * With a MetaDataCache, the field lists of root class contexts are also read from and added to the persistent cache.
+ */
+public class CachingReflector implements Reflector {
+
+	private final Reflector reflector;
+	private final MetaDataCache metaDataCache;
+	private final ClassCache<ClassContext, FieldMetaDataList> fieldLists = new ClassCache<>();
+	private final ClassCache<String, FieldMetaData> fieldMetaData = new ClassCache<>();
+
+	public CachingReflector(Reflector reflector) {
+
+		this(reflector, null);
+
+	}
+
+	public CachingReflector(Reflector reflector, MetaDataCache metaDataCache) {
+
+		this.reflector = Objects.requireNonNull(reflector, "reflector");
+		this.metaDataCache = metaDataCache;
+
+	}
+
+	public Reflector getReflector() {
+
+		return reflector;
+
+	}
+
+	@Override
+	public FieldMetaDataList getFieldListForClass(ClassContext clazzContext) {
+
+		Class rootClass = clazzContext.getHead() != null ? clazzContext.getHead().getClazz() : null;
+		if (rootClass == null) {
+			return loadFieldList(clazzContext);
+		}
+		return fieldLists.get(rootClass, clazzContext, this::loadFieldList);
+
+	}
+
+	@Override
+	public FieldMetaData getFieldMetaData(Class entityClass, String internalFieldName) {
+
+		return fieldMetaData.get(entityClass, internalFieldName, name -> reflector.getFieldMetaData(entityClass, name));
+
+	}
+
+	/**
+	 * @return - the metrics of the field list cache
+	 */
+	public ClassCache.Metrics getFieldListMetrics() {
+
+		return fieldLists.getMetrics();
+
+	}
+
+	/**
+	 * @return - the metrics of the field metadata cache
+	 */
+	public ClassCache.Metrics getFieldMetaDataMetrics() {
+
+		return fieldMetaData.getMetrics();
+
+	}
+
+	/**
+	 * Discards all cached metadata
+	 */
+	public void invalidate() {
+
+		fieldLists.invalidate();
+		fieldMetaData.invalidate();
+
+	}
+
+	/**
+	 * Discards the cached metadata that may depend on a class: field lists with the class anywhere in their context,
+	 * field metadata of the class and its subclasses, and field metadata of nested paths.
+	 *
+	 * @param clazz - the class whose metadata changed
+	 */
+	public void invalidate(Class clazz) {
+
+		fieldLists.invalidateIf((rootClass, clazzContext) -> clazzContext.getPathToClazz().stream().anyMatch(node -> node.getClazz() == clazz));
+		fieldMetaData.invalidateIf((entityClass, internalFieldName) -> clazz.isAssignableFrom(entityClass) || internalFieldName.indexOf('.') >= 0);
+
+	}
+
+	@Override
+	public boolean isLocalisable(Class entityClass) {
+
+		return reflector.isLocalisable(entityClass);
+
+	}
+
+	@Override
+	public boolean isVersioned(Class entityClass) {
+
+		return reflector.isVersioned(entityClass);
+
+	}
+
+	@Override
+	public boolean isPolymorphic(Class entityClass) {
+
+		return reflector.isPolymorphic(entityClass);
+
+	}
+
+	@Override
+	public String getDiscriminatorName(Class entityClass) {
+
+		return reflector.getDiscriminatorName(entityClass);
+
+	}
+
+	@Override
+	public String getDiscriminatorValue(Class entitySubClass) {
+
+		return reflector.getDiscriminatorValue(entitySubClass);
+
+	}
+
+	@Override
+	public Property getFieldProperty(EntityFieldMap fieldMap) {
+
+		return reflector.getFieldProperty(fieldMap);
+
+	}
+
+	@Override
+	public String getConfigurationKey() {
+
+		return reflector.getConfigurationKey();
+
+	}
+
+	private FieldMetaDataList loadFieldList(ClassContext clazzContext) {
+
+		// not loaded under a lock, as a collector may look up other classes through this reflector
+		return metaDataCache != null ? metaDataCache.getFieldList(clazzContext, reflector) : reflector.getFieldListForClass(clazzContext);
+
+	}
+
+}
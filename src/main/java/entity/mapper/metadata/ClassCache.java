@@ -0,0 +1,247 @@
+package entity.mapper.metadata;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * Cache of values by class and key that does not prevent classes (and their class loaders) from being unloaded.
+ * <p>
+ * The values are held in a ClassValue, so they are only reachable from their class and go away with it,
+ * even when they reference the class. The cache keeps weak references to the classes to count the entries and
+ * the evictions, and to find the entries to invalidate.
+ *
+ * @param <K> - the key of a value within a class
+ * @param <V> - the value
+ */
+public class ClassCache<K, V> {
+
+	private volatile ClassValue<ConcurrentMap<K, Optional<V>>> values = newValues();
+
+	// number of entries of each class, by weak reference to the class
+	private final ConcurrentMap<ClassReference, AtomicInteger> classes = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Class<?>> unloadedClasses = new ReferenceQueue<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Will get a value, loading it if it is not cached. The loader is not called under a lock, so it may use the cache.
+	 * @param clazz - the class of the value
+	 * @param key - the key of the value within the class
+	 * @param loader - the function loading the value (may return null)
+	 * @return - the value
+	 */
+	public V get(Class<?> clazz, K key, Function<K, V> loader) {
+
+		expungeUnloadedClasses();
+		ConcurrentMap<K, Optional<V>> classValues = values.get(clazz);
+		Optional<V> value = classValues.get(key);
+		if (value != null) {
+			hits.increment();
+			return value.orElse(null);
+		}
+
+		misses.increment();
+		value = Optional.ofNullable(loader.apply(key));
+		Optional<V> existing = classValues.putIfAbsent(key, value);
+		if (existing != null) {
+			return existing.orElse(null);
+		}
+		classes.computeIfAbsent(newReference(clazz), reference -> new AtomicInteger()).incrementAndGet();
+		return value.orElse(null);
+
+	}
+
+	/**
+	 * Discards the values of a class
+	 * @param clazz - the class
+	 */
+	public void invalidate(Class<?> clazz) {
+
+		values.remove(clazz);
+		AtomicInteger entries = classes.remove(new ClassReference(clazz, null));
+		if (entries != null) {
+			evictions.add(entries.get());
+		}
+
+	}
+
+	/**
+	 * Discards the values matching a predicate
+	 * @param predicate - the predicate on the class and the key of the value
+	 */
+	public void invalidateIf(BiPredicate<Class<?>, K> predicate) {
+
+		ClassValue<ConcurrentMap<K, Optional<V>>> currentValues = values;
+		for (ClassReference reference : new ArrayList<>(classes.keySet())) {
+			Class<?> clazz = reference.get();
+			AtomicInteger entries = classes.get(reference);
+			if (clazz == null || entries == null) {
+				continue;
+			}
+			ConcurrentMap<K, Optional<V>> classValues = currentValues.get(clazz);
+			for (K key : new ArrayList<>(classValues.keySet())) {
+				if (predicate.test(clazz, key) && classValues.remove(key) != null) {
+					entries.decrementAndGet();
+					evictions.increment();
+				}
+			}
+			if (entries.get() == 0) {
+				classes.remove(reference, entries);
+			}
+		}
+
+	}
+
+	/**
+	 * Discards all the values
+	 */
+	public void invalidate() {
+
+		values = newValues();
+		for (ClassReference reference : new ArrayList<>(classes.keySet())) {
+			AtomicInteger entries = classes.remove(reference);
+			if (entries != null) {
+				evictions.add(entries.get());
+			}
+		}
+
+	}
+
+	/**
+	 * Will get a snapshot of the cache metrics
+	 * @return - the metrics
+	 */
+	public Metrics getMetrics() {
+
+		expungeUnloadedClasses();
+		long entries = 0;
+		for (AtomicInteger classEntries : classes.values()) {
+			entries += classEntries.get();
+		}
+		return new Metrics(entries, classes.size(), hits.sum(), misses.sum(), evictions.sum());
+
+	}
+
+	private void expungeUnloadedClasses() {
+
+		Object reference;
+		while ((reference = unloadedClasses.poll()) != null) {
+			AtomicInteger entries = classes.remove(reference);
+			if (entries != null) {
+				evictions.add(entries.get());
+			}
+		}
+
+	}
+
+	private ClassValue<ConcurrentMap<K, Optional<V>>> newValues() {
+
+		return new ClassValue<ConcurrentMap<K, Optional<V>>>() {
+			@Override
+			protected ConcurrentMap<K, Optional<V>> computeValue(Class<?> type) {
+				return new ConcurrentHashMap<>();
+			}
+		};
+
+	}
+
+	private ClassReference newReference(Class<?> clazz) {
+
+		return new ClassReference(clazz, unloadedClasses);
+
+	}
+
+	/**
+	 * Weak reference to a class, equal to the references to the same class
+	 */
+	private static final class ClassReference extends WeakReference<Class<?>> {
+
+		private final int hashCode;
+
+		ClassReference(Class<?> clazz, ReferenceQueue<Class<?>> queue) {
+			super(clazz, queue);
+			this.hashCode = System.identityHashCode(clazz);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof ClassReference)) return false;
+			Class<?> clazz = get();
+			return clazz != null && clazz == ((ClassReference) o).get();
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/**
+	 * Snapshot of the metrics of a cache
+	 */
+	public static final class Metrics {
+
+		private final long entries;
+		private final int classes;
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+
+		Metrics(long entries, int classes, long hits, long misses, long evictions) {
+			this.entries = entries;
+			this.classes = classes;
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+		}
+
+		public long getEntries() {
+			return entries;
+		}
+
+		public int getClasses() {
+			return classes;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * @return - the ratio of lookups served from the cache, 0 if there was no lookup
+		 */
+		public double getHitRatio() {
+			long lookups = hits + misses;
+			return lookups == 0 ? 0 : (double) hits / lookups;
+		}
+
+		/**
+		 * @return - the number of entries discarded, either invalidated or unloaded with their class
+		 */
+		public long getEvictions() {
+			return evictions;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("[entries: %d, classes: %d, hits: %d, misses: %d, hit ratio: %.3f, evictions: %d]",
+					entries, classes, hits, misses, getHitRatio(), evictions);
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ package entity.mapper.metadata;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 public class ClassContext {
 
@@ -54,6 +55,22 @@ public class ClassContext {
 
 	}
 
+	@Override
+	public boolean equals(Object o) {
+
+		if (this == o) return true;
+		if (!(o instanceof ClassContext)) return false;
+		return pathToClazz.equals(((ClassContext) o).pathToClazz);
+
+	}
+
+	@Override
+	public int hashCode() {
+
+		return pathToClazz.hashCode();
+
+	}
+
 	@Override
 	public String toString() {
 
@@ -79,6 +96,23 @@ public class ClassContext {
 			return propertyName;
 		}
 
+		@Override
+		public boolean equals(Object o) {
+
+			if (this == o) return true;
+			if (!(o instanceof ClassNode)) return false;
+			ClassNode that = (ClassNode) o;
+			return clazz == that.clazz && Objects.equals(propertyName, that.propertyName);
+
+		}
+
+		@Override
+		public int hashCode() {
+
+			return 31 * (propertyName != null ? propertyName.hashCode() : 0) + (clazz != null ? clazz.hashCode() : 0);
+
+		}
+
 		@Override
 		public String toString() {
 
@@ -30,6 +30,18 @@ public class DefaultReflector implements Reflector {
         return currentList;
     }
 
+    /**
+     * The key of the reflector includes the keys of its collectors, in order
+     */
+    @Override
+    public String getConfigurationKey() {
+        StringBuilder key = new StringBuilder(Reflector.super.getConfigurationKey());
+        for (MetaDataCollector reflector : reflectorList) {
+            key.append(',').append(reflector.getConfigurationKey());
+        }
+        return key.toString();
+    }
+
     @Override
     public FieldMetaData getFieldMetaData(Class entityClass, String internalFieldName) {
         FieldMetaData fieldMetaData = null;
@@ -0,0 +1,633 @@
+package entity.mapper.metadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of class metadata, to skip the introspection and reflection work at startup when the classes did not change.
+ * <p>
+ * The cache holds the property types of classes (see PropertyTypeIndex) and the FieldMetaDataLists of root class contexts
+ * (see CachingReflector). Each class entry is stamped with the location and the last modification time of the class files of the class
+ * and of its superclasses (or of the jars holding them), and is ignored once one of them changed. A field list is also stamped with the
+ * class files of the types of its fields, as a reflector may look at them (e.g. to tell a component from an association).
+ * Classes whose class files cannot be located (e.g. generated classes) are never cached.
+ * The field lists are also keyed by the configuration of the reflector that built them (see Reflector.getConfigurationKey()),
+ * so reflectors configured differently do not get each other's field lists.
+ * <p>
+ * The cache file is memory mapped when opened, and only its index of class names is read then: each entry is read on its first use.
+ * An unreadable or outdated file is ignored and replaced on the next save. Entries added or replaced since the cache was opened
+ * are only written by save(), which reads the remaining entries of the file and releases it.
+ */
+public class MetaDataCache implements PropertyTypeIndex {
+
+	private static final int MAGIC = 0x454d4d43;
+	private static final int VERSION = 1;
+	private static final long NOT_STAMPED = 0;
+	private static final long NOT_HASHABLE = 0;
+
+	// the class files of a loaded class are stamped once
+	private static final ClassValue<Long> STAMPS = new ClassValue<Long>() {
+		@Override
+		protected Long computeValue(Class<?> type) {
+			return computeStamp(type);
+		}
+	};
+
+	// the bytecode of a loaded class does not change, so it is hashed once
+	private static final ClassValue<Long> HASHES = new ClassValue<Long>() {
+		@Override
+		protected Long computeValue(Class<?> type) {
+			return computeHash(type);
+		}
+	};
+
+	private static final Map<String, Class> PRIMITIVE_TYPES = new HashMap<>();
+
+	static {
+		for (Class type : new Class[]{boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class}) {
+			PRIMITIVE_TYPES.put(type.getName(), type);
+		}
+	}
+
+	private final Path file;
+	private final ConcurrentMap<String, ClassEntry> entries = new ConcurrentHashMap<>();
+	// the entries of the file not read yet: the mapped file, and the position of each entry by class name
+	private volatile ByteBuffer mapped;
+	private final ConcurrentMap<String, Integer> positions = new ConcurrentHashMap<>();
+	private final AtomicBoolean modified = new AtomicBoolean();
+
+	private MetaDataCache(Path file) {
+
+		this.file = file;
+
+	}
+
+	/**
+	 * Will open a cache file. The file does not need to exist.
+	 * @param file - the cache file
+	 * @return - the cache, with the entries of the file if it could be read
+	 */
+	public static MetaDataCache open(Path file) {
+
+		MetaDataCache cache = new MetaDataCache(file);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			cache.read(buffer);
+		} catch (NoSuchFileException e) {
+			// nothing cached yet
+		} catch (IOException | RuntimeException e) {
+			// unreadable or corrupted, it is rebuilt
+			cache.mapped = null;
+			cache.positions.clear();
+			cache.modified.set(true);
+		}
+		return cache;
+
+	}
+
+	@Override
+	public Map<String, Class> getPropertyTypes(Class clazz) {
+
+		long stamp = stamp(clazz);
+		ClassEntry entry = stamp != NOT_STAMPED ? entry(clazz.getName()) : null;
+		if (entry != null && entry.stamp == stamp && entry.propertyTypes != null) {
+			Map<String, Class> propertyTypes = new HashMap<>();
+			for (Map.Entry<String, String> propertyType : entry.propertyTypes.entrySet()) {
+				propertyTypes.put(propertyType.getKey(), resolveClass(propertyType.getValue(), clazz));
+			}
+			return propertyTypes;
+		}
+
+		Map<String, Class> propertyTypes = PropertyTypeIndex.introspect(clazz);
+		if (stamp != NOT_STAMPED) {
+			Map<String, String> propertyTypeNames = new HashMap<>();
+			for (Map.Entry<String, Class> propertyType : propertyTypes.entrySet()) {
+				if (propertyType.getValue() == null) {
+					// indexed properties only, not worth caching
+					return propertyTypes;
+				}
+				propertyTypeNames.put(propertyType.getKey(), propertyType.getValue().getName());
+			}
+			update(clazz.getName(), current -> new ClassEntry(stamp, propertyTypeNames, current != null && current.stamp == stamp ? current.fields : Collections.emptyMap()));
+		}
+		return propertyTypes;
+
+	}
+
+	/**
+	 * Will get the field list of a root class context (a context with a single class) built by a reflector configuration from the cache,
+	 * or else from the reflector, caching the result when it can be rebuilt from the class and field names.
+	 * @param clazzContext - the class context
+	 * @param reflector - the reflector used when the class is not cached
+	 * @return - the field list
+	 */
+	public FieldMetaDataList getFieldList(ClassContext clazzContext, Reflector reflector) {
+
+		if (clazzContext.getPathToClazz().size() != 1) {
+			return reflector.getFieldListForClass(clazzContext);
+		}
+
+		Class clazz = clazzContext.getTail().getClazz();
+		long stamp = stamp(clazz);
+		String reflectorKey = reflector.getConfigurationKey();
+		ClassEntry entry = stamp != NOT_STAMPED ? entry(clazz.getName()) : null;
+		CachedFieldList cachedFields = entry != null && entry.stamp == stamp ? entry.fields.get(reflectorKey) : null;
+		if (cachedFields != null) {
+			List<Class> fieldTypes = new ArrayList<>(cachedFields.fields.size());
+			for (CachedField field : cachedFields.fields) {
+				fieldTypes.add(resolveClass(field.typeName, clazz));
+			}
+			if (typesStamp(fieldTypes) == cachedFields.typesStamp) {
+				List<FieldMetaData> fieldMetaDataList = new ArrayList<>(cachedFields.fields.size());
+				for (int i = 0; i < cachedFields.fields.size(); i++) {
+					CachedField field = cachedFields.fields.get(i);
+					List<FieldMetaData.Attribute> attributes = new ArrayList<>(field.attributes);
+					ClassContext fieldContext = clazzContext.addClass(field.internalName, fieldTypes.get(i));
+					fieldMetaDataList.add(new FieldMetaData(field.internalName, field.externalName, fieldContext, attributes, field.length));
+				}
+				return new FieldMetaDataList(fieldMetaDataList);
+			}
+		}
+
+		FieldMetaDataList fieldMetaDataList = reflector.getFieldListForClass(clazzContext);
+		if (stamp != NOT_STAMPED && fieldMetaDataList != null) {
+			List<CachedField> fields = new ArrayList<>();
+			List<Class> fieldTypes = new ArrayList<>();
+			for (FieldMetaData fieldMetaData : fieldMetaDataList.getMembers()) {
+				ClassContext.ClassNode fieldNode = fieldMetaData.getClassContext() != null ? fieldMetaData.getClassContext().getTail() : null;
+				if (fieldNode == null || fieldNode.getClazz() == null
+						|| !fieldMetaData.getClassContext().equals(clazzContext.addClass(fieldMetaData.getInternalName(), fieldNode.getClazz()))) {
+					// the field context cannot be rebuilt from the cache
+					return fieldMetaDataList;
+				}
+				fields.add(new CachedField(fieldMetaData.getInternalName(), fieldMetaData.getExternalName(), fieldMetaData.getLength(),
+						attributeSet(fieldMetaData.getAttributes()), fieldNode.getClazz().getName()));
+				fieldTypes.add(fieldNode.getClazz());
+			}
+			long typesStamp = typesStamp(fieldTypes);
+			if (typesStamp == NOT_STAMPED) {
+				return fieldMetaDataList;
+			}
+			update(clazz.getName(), current -> {
+				Map<String, CachedFieldList> fieldsByReflector = new HashMap<>();
+				if (current != null && current.stamp == stamp) {
+					fieldsByReflector.putAll(current.fields);
+				}
+				fieldsByReflector.put(reflectorKey, new CachedFieldList(typesStamp, fields));
+				return new ClassEntry(stamp, current != null && current.stamp == stamp ? current.propertyTypes : null, fieldsByReflector);
+			});
+		}
+		return fieldMetaDataList;
+
+	}
+
+	/**
+	 * Will write the cache file if entries changed since it was opened. The file is replaced atomically where the file system supports it.
+	 * @throws IOException - if the file cannot be written
+	 */
+	public void save() throws IOException {
+
+		if (!modified.getAndSet(false)) {
+			return;
+		}
+		readEntries();
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			write(new DataOutputStream(bytes));
+
+			Path directory = file.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+			Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try {
+				Files.write(tempFile, bytes.toByteArray());
+				try {
+					Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+		} catch (IOException | RuntimeException e) {
+			modified.set(true);
+			throw e;
+		}
+
+	}
+
+	private void update(String className, Function<ClassEntry, ClassEntry> updater) {
+
+		entries.compute(className, (name, entry) -> updater.apply(entry != null ? entry : readEntry(name)));
+		modified.set(true);
+
+	}
+
+	/**
+	 * Will get the entry of a class, reading it from the file on its first use
+	 */
+	private ClassEntry entry(String className) {
+
+		ClassEntry entry = entries.get(className);
+		if (entry == null && positions.containsKey(className)) {
+			entry = entries.computeIfAbsent(className, this::readEntry);
+		}
+		return entry;
+
+	}
+
+	/**
+	 * Will read the entry of a class from the file, or return null if the file has no such entry or the entry cannot be read
+	 */
+	private ClassEntry readEntry(String className) {
+
+		ByteBuffer buffer = mapped;
+		Integer position = positions.get(className);
+		if (buffer == null || position == null) {
+			return null;
+		}
+		try {
+			ByteBuffer entryBuffer = buffer.duplicate();
+			entryBuffer.position(position);
+			return readEntry(entryBuffer);
+		} catch (RuntimeException e) {
+			// corrupted, it is rebuilt
+			positions.remove(className);
+			modified.set(true);
+			return null;
+		}
+
+	}
+
+	/**
+	 * Will read the entries of the file not read yet, and release the file
+	 */
+	private void readEntries() {
+
+		for (String className : positions.keySet()) {
+			entry(className);
+		}
+		positions.clear();
+		mapped = null;
+
+	}
+
+	private static Set<FieldMetaData.Attribute> attributeSet(Collection<FieldMetaData.Attribute> attributes) {
+
+		Set<FieldMetaData.Attribute> attributeSet = EnumSet.noneOf(FieldMetaData.Attribute.class);
+		attributeSet.addAll(attributes);
+		return attributeSet;
+
+	}
+
+	private void read(ByteBuffer buffer) {
+
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !javaVersion().equals(readString(buffer))) {
+			throw new IllegalStateException("Unsupported metadata cache " + file);
+		}
+		int entryCount = buffer.getInt();
+		Map<String, Integer> offsets = new HashMap<>();
+		for (int i = 0; i < entryCount; i++) {
+			offsets.put(readString(buffer), buffer.getInt());
+		}
+		// the entries follow the index
+		int start = buffer.position();
+		for (Map.Entry<String, Integer> offset : offsets.entrySet()) {
+			positions.put(offset.getKey(), start + offset.getValue());
+		}
+		mapped = buffer;
+
+	}
+
+	private static ClassEntry readEntry(ByteBuffer buffer) {
+
+		long stamp = buffer.getLong();
+
+		Map<String, String> propertyTypes = null;
+		int propertyCount = buffer.getInt();
+		if (propertyCount >= 0) {
+			propertyTypes = new HashMap<>();
+			for (int j = 0; j < propertyCount; j++) {
+				propertyTypes.put(readString(buffer), readString(buffer));
+			}
+		}
+
+		Map<String, CachedFieldList> fieldsByReflector = new HashMap<>();
+		int reflectorCount = buffer.getInt();
+		for (int j = 0; j < reflectorCount; j++) {
+			String reflectorKey = readString(buffer);
+			long typesStamp = buffer.getLong();
+			int fieldCount = buffer.getInt();
+			List<CachedField> fields = new ArrayList<>(fieldCount);
+			for (int k = 0; k < fieldCount; k++) {
+				String internalName = readString(buffer);
+				String externalName = readString(buffer);
+				int length = buffer.getInt();
+				int attributeBits = buffer.getInt();
+				Set<FieldMetaData.Attribute> attributes = EnumSet.noneOf(FieldMetaData.Attribute.class);
+				for (FieldMetaData.Attribute attribute : FieldMetaData.Attribute.values()) {
+					if ((attributeBits & (1 << attribute.ordinal())) != 0) {
+						attributes.add(attribute);
+					}
+				}
+				fields.add(new CachedField(internalName, externalName, length, attributes, readString(buffer)));
+			}
+			fieldsByReflector.put(reflectorKey, new CachedFieldList(typesStamp, fields));
+		}
+		return new ClassEntry(stamp, propertyTypes, fieldsByReflector);
+
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+
+		// a snapshot, so that the count matches the entries written
+		Map<String, ClassEntry> snapshot = new TreeMap<>(entries);
+
+		// the entries are written after the index, which holds the offset of each entry
+		ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+		DataOutputStream entryOut = new DataOutputStream(entryBytes);
+		Map<String, Integer> offsets = new LinkedHashMap<>();
+		for (Map.Entry<String, ClassEntry> classEntry : snapshot.entrySet()) {
+			entryOut.flush();
+			offsets.put(classEntry.getKey(), entryBytes.size());
+			writeEntry(entryOut, classEntry.getValue());
+		}
+		entryOut.flush();
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeString(out, javaVersion());
+		out.writeInt(offsets.size());
+		for (Map.Entry<String, Integer> offset : offsets.entrySet()) {
+			writeString(out, offset.getKey());
+			out.writeInt(offset.getValue());
+		}
+		entryBytes.writeTo(out);
+		out.flush();
+
+	}
+
+	private static void writeEntry(DataOutputStream out, ClassEntry entry) throws IOException {
+
+		out.writeLong(entry.stamp);
+
+		if (entry.propertyTypes == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(entry.propertyTypes.size());
+			for (Map.Entry<String, String> propertyType : entry.propertyTypes.entrySet()) {
+				writeString(out, propertyType.getKey());
+				writeString(out, propertyType.getValue());
+			}
+		}
+
+		out.writeInt(entry.fields.size());
+		for (Map.Entry<String, CachedFieldList> reflectorFields : entry.fields.entrySet()) {
+			writeString(out, reflectorFields.getKey());
+			out.writeLong(reflectorFields.getValue().typesStamp);
+			out.writeInt(reflectorFields.getValue().fields.size());
+			for (CachedField field : reflectorFields.getValue().fields) {
+				writeString(out, field.internalName);
+				writeString(out, field.externalName);
+				out.writeInt(field.length);
+				int attributeBits = 0;
+				for (FieldMetaData.Attribute attribute : field.attributes) {
+					attributeBits |= 1 << attribute.ordinal();
+				}
+				out.writeInt(attributeBits);
+				writeString(out, field.typeName);
+			}
+		}
+
+	}
+
+	private static String readString(ByteBuffer buffer) {
+
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+
+	}
+
+	private static String javaVersion() {
+
+		// the JDK classes are not stamped, so the cache is tied to the java version
+		return System.getProperty("java.version", "");
+
+	}
+
+	private static long stamp(Class clazz) {
+
+		return STAMPS.get(clazz);
+
+	}
+
+	/**
+	 * Stamp of the class files of the types of fields, ignoring the JDK types
+	 */
+	private static long typesStamp(Collection<Class> types) {
+
+		long stamp = 1;
+		for (Class type : types) {
+			while (type.isArray()) {
+				type = type.getComponentType();
+			}
+			long typeStamp = stamp(type);
+			if (typeStamp == NOT_STAMPED) {
+				return NOT_STAMPED;
+			}
+			stamp = 31 * stamp + typeStamp;
+		}
+		return stamp == NOT_STAMPED ? 1 : stamp;
+
+	}
+
+	private static long hash(Class clazz) {
+
+		return HASHES.get(clazz);
+
+	}
+
+	/**
+	 * Will get the hash identifying the bytecode of a class and of its superclasses. Unlike the stamps of the cache, the hash does not depend
+	 * on where the class files are, e.g. for files built before the classes are packaged. The bytecode is read to hash it.
+	 * @param clazz - the class
+	 * @return - the hash, or 0 if the bytecode cannot be read (e.g. generated classes)
+	 */
+	public static long classHash(Class clazz) {
+
+		return hash(clazz);
+
+	}
+
+	/**
+	 * Will get a key identifying a class and its class files, e.g. for the configuration key of a reflector (see Reflector.getConfigurationKey())
+	 * @param clazz - the class
+	 * @return - the class name and the stamp of its class files
+	 */
+	public static String classKey(Class clazz) {
+
+		return clazz.getName() + '#' + Long.toHexString(stamp(clazz));
+
+	}
+
+	/**
+	 * Stamp of the class files of a class and of its superclasses, up to the first class without a class loader: the location and the
+	 * last modification time of each class file, or of the jar holding it. Nothing is read, so a class is stamped cheaply.
+	 */
+	private static long computeStamp(Class clazz) {
+
+		long stamp = clazz.getName().hashCode();
+		for (Class current = clazz; current != null && current.getClassLoader() != null; current = current.getSuperclass()) {
+			URL location = current.getClassLoader().getResource(current.getName().replace('.', '/') + ".class");
+			long lastModified = location != null ? lastModified(location) : 0;
+			if (lastModified <= 0) {
+				return NOT_STAMPED;
+			}
+			stamp = 31 * (31 * stamp + location.toString().hashCode()) + lastModified;
+		}
+		return stamp == NOT_STAMPED ? 1 : stamp;
+
+	}
+
+	/**
+	 * Last modification time of a class file, or of the jar holding it (e.g. jar:file:/lib/entities.jar!/entity/Item.class)
+	 * @return - the time, or 0 if it is not a local file
+	 */
+	private static long lastModified(URL location) {
+
+		try {
+			URL file = location;
+			if ("jar".equals(file.getProtocol())) {
+				String path = file.getPath();
+				int separator = path.indexOf("!/");
+				file = new URL(separator >= 0 ? path.substring(0, separator) : path);
+			}
+			return "file".equals(file.getProtocol()) ? new File(file.toURI()).lastModified() : 0;
+		} catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+			return 0;
+		}
+
+	}
+
+	/**
+	 * Hash of the bytecode of a class and of its superclasses, up to the first class without a class loader
+	 */
+	private static long computeHash(Class clazz) {
+
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		for (Class current = clazz; current != null && current.getClassLoader() != null; current = current.getSuperclass()) {
+			String resourceName = current.getName().replace('.', '/') + ".class";
+			try (InputStream in = current.getClassLoader().getResourceAsStream(resourceName)) {
+				if (in == null) {
+					return NOT_HASHABLE;
+				}
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					crc.update(buffer, 0, read);
+				}
+			} catch (IOException e) {
+				return NOT_HASHABLE;
+			}
+		}
+		// the class name is part of the hash, so that classes of the bootstrap class loader are told apart
+		byte[] name = clazz.getName().getBytes(StandardCharsets.UTF_8);
+		crc.update(name, 0, name.length);
+		long hash = crc.getValue();
+		return hash == NOT_HASHABLE ? 1 : hash;
+
+	}
+
+	private static Class resolveClass(String typeName, Class owner) {
+
+		Class primitiveType = PRIMITIVE_TYPES.get(typeName);
+		if (primitiveType != null) {
+			return primitiveType;
+		}
+		try {
+			return Class.forName(typeName, false, owner.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Class " + typeName + " of the metadata cache of " + owner.getName() + " cannot be loaded", e);
+		}
+
+	}
+
+	private static class ClassEntry {
+
+		private final long stamp;
+		private final Map<String, String> propertyTypes;
+		// by reflector configuration key
+		private final Map<String, CachedFieldList> fields;
+
+		ClassEntry(long stamp, Map<String, String> propertyTypes, Map<String, CachedFieldList> fields) {
+			this.stamp = stamp;
+			this.propertyTypes = propertyTypes;
+			this.fields = fields;
+		}
+	}
+
+	private static class CachedFieldList {
+
+		// stamp of the types of the fields
+		private final long typesStamp;
+		private final List<CachedField> fields;
+
+		CachedFieldList(long typesStamp, List<CachedField> fields) {
+			this.typesStamp = typesStamp;
+			this.fields = fields;
+		}
+	}
+
+	private static class CachedField {
+
+		private final String internalName;
+		private final String externalName;
+		private final int length;
+		private final Set<FieldMetaData.Attribute> attributes;
+		private final String typeName;
+
+		CachedField(String internalName, String externalName, int length, Set<FieldMetaData.Attribute> attributes, String typeName) {
+			this.internalName = internalName;
+			this.externalName = externalName;
+			this.length = length;
+			this.attributes = attributes;
+			this.typeName = typeName;
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+package entity.mapper.metadata;
+
+import org.apache.commons.beanutils.PropertyUtils;
+
+import java.beans.PropertyDescriptor;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides the bean property types of a class, used by EntityMapper to build its map of field types.
+ */
+public interface PropertyTypeIndex {
+
+	/**
+	 * Index that introspects the class on every call
+	 */
+	PropertyTypeIndex INTROSPECTOR = PropertyTypeIndex::introspect;
+
+	/**
+	 * Will get the property types of a class, including the inherited properties
+	 * @param clazz - the class
+	 * @return - the type of each property by property name
+	 */
+	Map<String, Class> getPropertyTypes(Class clazz);
+
+	static Map<String, Class> introspect(Class clazz) {
+
+		PropertyDescriptor[] propertyDescriptors = PropertyUtils.getPropertyDescriptors(clazz);
+		Map<String, Class> propertyTypes = new HashMap<>();
+		for (PropertyDescriptor propertyDescriptor : propertyDescriptors) {
+			propertyTypes.put(propertyDescriptor.getName(), propertyDescriptor.getPropertyType());
+		}
+		return propertyTypes;
+
+	}
+
+}
@@ -26,4 +26,14 @@ public interface Reflector {
     String getDiscriminatorValue(Class entitySubClass);
 
     Property getFieldProperty(EntityFieldMap fieldMap);
+
+    /**
+     * Will return a key identifying the configuration of the reflector, so that the field lists cached by MetaDataCache
+     * are only reused by a reflector built the same way. Reflectors whose field lists depend on more than their classes must override it.
+     *
+     * @return - the configuration key, by default the class of the reflector and the hash of its bytecode
+     */
+    default String getConfigurationKey() {
+        return MetaDataCache.classKey(getClass());
+    }
 }
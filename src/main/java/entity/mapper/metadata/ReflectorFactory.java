@@ -1,30 +1,31 @@
 package entity.mapper.metadata;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Class that will perform the task of reflecting over an object using registered
  * au.com.afjsoftware.dataserver.metadata.MetaDataReflector reflectors to build a list of fields that is contained
  * in the Object provided.
+ * <p>
+ * Lookups do not lock: the default reflector is held in a volatile field, and the reflectors registered for class loaders
+ * in an immutable map that is replaced on every registration.
  */
 public class ReflectorFactory {
 
-	private static final Object lock = new Object();
-	private static volatile ReflectorFactory instance;
+	private static final ReflectorFactory instance = new ReflectorFactory();
 
-	private Reflector reflector;
+	private volatile Reflector reflector;
 
-	private ReflectorFactory() {}
+	private volatile PropertyTypeIndex propertyTypeIndex = PropertyTypeIndex.INTROSPECTOR;
 
-	public static ReflectorFactory getInstance() {
+	private final AtomicReference<Map<ClassLoader, Reflector>> classLoaderReflectors = new AtomicReference<>(Collections.emptyMap());
 
-		if(instance == null) {
-			synchronized (lock) {
-
-				if(instance == null) {
-					instance = new ReflectorFactory();
-				}
+	private ReflectorFactory() {}
 
-			}
-		}
+	public static ReflectorFactory getInstance() {
 
 		return instance;
 
@@ -34,15 +35,78 @@ public class ReflectorFactory {
 	 * Register an reflector. Order in important as an reflector may modify exsiting entries.
 	 * @param reflector - the reflector to add
 	 */
-	public synchronized void register(Reflector reflector) {
+	public void register(Reflector reflector) {
 		this.reflector = reflector;
 	}
 
+	/**
+	 * Register a reflector for the classes of a class loader (and of its child class loaders), e.g. for a module or tenant.
+	 * The class loader is strongly referenced until it is unregistered.
+	 * @param classLoader - the class loader
+	 * @param reflector - the reflector for the classes of the class loader
+	 */
+	public void register(ClassLoader classLoader, Reflector reflector) {
+		classLoaderReflectors.updateAndGet(reflectors -> {
+			Map<ClassLoader, Reflector> newReflectors = new IdentityHashMap<>(reflectors);
+			newReflectors.put(classLoader, reflector);
+			return Collections.unmodifiableMap(newReflectors);
+		});
+	}
+
+	/**
+	 * Remove the reflector registered for a class loader
+	 * @param classLoader - the class loader
+	 */
+	public void unregister(ClassLoader classLoader) {
+		classLoaderReflectors.updateAndGet(reflectors -> {
+			if (!reflectors.containsKey(classLoader)) {
+				return reflectors;
+			}
+			Map<ClassLoader, Reflector> newReflectors = new IdentityHashMap<>(reflectors);
+			newReflectors.remove(classLoader);
+			return Collections.unmodifiableMap(newReflectors);
+		});
+	}
+
+	/**
+	 * Register the index used to get the property types of the mapped classes, e.g. a MetaDataCache
+	 * @param propertyTypeIndex - the property type index
+	 */
+	public void register(PropertyTypeIndex propertyTypeIndex) {
+		this.propertyTypeIndex = propertyTypeIndex != null ? propertyTypeIndex : PropertyTypeIndex.INTROSPECTOR;
+	}
+
+	/**
+	 * Will get the registered property type index
+	 * @return - the registered property type index, introspecting the classes if none was registered
+	 */
+	public PropertyTypeIndex getPropertyTypeIndex() {
+		return this.propertyTypeIndex;
+	}
+
 	/**
 	 * Will get the registered reflector
 	 * @return - the registered reflector
 	 */
-	public synchronized Reflector getReflector() {
+	public Reflector getReflector() {
+		return this.reflector;
+	}
+
+	/**
+	 * Will get the reflector for a class: the reflector registered for the nearest class loader of the class, or else the registered reflector
+	 * @param clazz - the class to be reflected
+	 * @return - the reflector for the class
+	 */
+	public Reflector getReflector(Class clazz) {
+		Map<ClassLoader, Reflector> reflectors = classLoaderReflectors.get();
+		if (!reflectors.isEmpty() && clazz != null) {
+			for (ClassLoader classLoader = clazz.getClassLoader(); classLoader != null; classLoader = classLoader.getParent()) {
+				Reflector classLoaderReflector = reflectors.get(classLoader);
+				if (classLoaderReflector != null) {
+					return classLoaderReflector;
+				}
+			}
+		}
 		return this.reflector;
 	}
 
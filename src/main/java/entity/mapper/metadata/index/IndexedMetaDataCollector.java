@@ -0,0 +1,195 @@
+package entity.mapper.metadata.index;
+
+import entity.mapper.metadata.ClassContext;
+import entity.mapper.metadata.FieldMetaData;
+import entity.mapper.metadata.FieldMetaDataBuilder;
+import entity.mapper.metadata.FieldMetaDataList;
+import entity.mapper.metadata.reflector.MetaDataCollector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Array;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Collects field metadata from the index written at build time by MetaDataIndexProcessor, instead of reflecting over the classes.
+ * <p>
+ * All the index resources visible to the class loader are read once, when the collector is created.
+ * Classes that are not in the index are left to the other collectors: the current list is returned unchanged.
+ * <p>
+ * Index format (UTF-8 text, one entry per line):
+ * <pre>
+ * # entity-mapper metadata index 1
+ * class &lt;binary class name&gt;
+ * field	&lt;internal name&gt;	&lt;external name&gt;	&lt;length&gt;	&lt;attribute,...&gt;	&lt;field or element type&gt;
+ * </pre>
+ */
+public class IndexedMetaDataCollector implements MetaDataCollector {
+
+	public static final String INDEX_RESOURCE = "META-INF/entity-mapper/metadata.idx";
+
+	static final String INDEX_HEADER = "# entity-mapper metadata index 1";
+	static final String CLASS_PREFIX = "class ";
+	private static final String FIELD_PREFIX = "field\t";
+
+	private static final Map<String, Class> PRIMITIVE_TYPES = new HashMap<>();
+
+	static {
+		for (Class type : new Class[]{boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class}) {
+			PRIMITIVE_TYPES.put(type.getName(), type);
+		}
+	}
+
+	private final ClassLoader classLoader;
+	private final Map<String, List<IndexedField>> index = new HashMap<>();
+	// hash of the index resources read, for the configuration key
+	private final CRC32 indexHash = new CRC32();
+
+	public IndexedMetaDataCollector() {
+
+		this(Thread.currentThread().getContextClassLoader());
+
+	}
+
+	public IndexedMetaDataCollector(ClassLoader classLoader) {
+
+		this.classLoader = classLoader;
+		try {
+			Enumeration<URL> resources = classLoader.getResources(INDEX_RESOURCE);
+			while (resources.hasMoreElements()) {
+				read(resources.nextElement());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Error reading the metadata index", e);
+		}
+
+	}
+
+	/**
+	 * @param clazz - the class
+	 * @return - true if the class is in the index
+	 */
+	public boolean isIndexed(Class clazz) {
+
+		return index.containsKey(clazz.getName());
+
+	}
+
+	@Override
+	public FieldMetaDataList buildFieldMetaDataList(ClassContext clazz, FieldMetaDataList currentList) {
+
+		List<IndexedField> fields = clazz.getTail() != null ? index.get(clazz.getTail().getClazz().getName()) : null;
+		if (fields == null) {
+			return currentList;
+		}
+
+		ClassLoader fieldClassLoader = clazz.getTail().getClazz().getClassLoader() != null ? clazz.getTail().getClazz().getClassLoader() : classLoader;
+		List<FieldMetaData> metaDataList = new ArrayList<>(fields.size());
+		for (IndexedField field : fields) {
+			FieldMetaDataBuilder builder = new FieldMetaDataBuilder();
+			builder.withInternalName(field.internalName);
+			builder.withExternalName(field.externalName);
+			builder.withLength(field.length);
+			builder.withAttributes(new ArrayList<>(field.attributes));
+			builder.withClassContext(clazz.addClass(field.internalName, resolveClass(field.typeName, fieldClassLoader)));
+			metaDataList.add(builder.build());
+		}
+		return currentList.merge(new FieldMetaDataList(metaDataList));
+
+	}
+
+	/**
+	 * The key includes a hash of the index resources, as the metadata of a class depends on the index
+	 */
+	@Override
+	public String getConfigurationKey() {
+
+		return MetaDataCollector.super.getConfigurationKey() + '#' + Long.toHexString(indexHash.getValue());
+
+	}
+
+	static String formatField(String internalName, String externalName, int length, Collection<FieldMetaData.Attribute> attributes, String typeName) {
+
+		StringBuilder attributeNames = new StringBuilder();
+		for (FieldMetaData.Attribute attribute : attributes) {
+			if (attributeNames.length() > 0) {
+				attributeNames.append(',');
+			}
+			attributeNames.append(attribute.name());
+		}
+		return FIELD_PREFIX + internalName + '\t' + externalName + '\t' + length + '\t' + attributeNames + '\t' + typeName;
+
+	}
+
+	private void read(URL resource) throws IOException {
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8))) {
+			String header = reader.readLine();
+			if (!INDEX_HEADER.equals(header)) {
+				throw new IOException("Unsupported metadata index " + resource + ": " + header);
+			}
+			List<IndexedField> fields = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				byte[] lineBytes = (line + '\n').getBytes(StandardCharsets.UTF_8);
+				indexHash.update(lineBytes, 0, lineBytes.length);
+				if (line.startsWith(CLASS_PREFIX)) {
+					fields = new ArrayList<>();
+					index.put(line.substring(CLASS_PREFIX.length()), fields);
+				} else if (line.startsWith(FIELD_PREFIX) && fields != null) {
+					String[] parts = line.split("\t", -1);
+					if (parts.length != 6) {
+						throw new IOException("Invalid entry in metadata index " + resource + ": " + line);
+					}
+					List<FieldMetaData.Attribute> attributes = new ArrayList<>();
+					for (String attribute : parts[4].split(",")) {
+						if (!attribute.isEmpty()) {
+							attributes.add(FieldMetaData.Attribute.valueOf(attribute));
+						}
+					}
+					fields.add(new IndexedField(parts[1], parts[2], Integer.parseInt(parts[3]), attributes, parts[5]));
+				}
+			}
+		}
+
+	}
+
+	private static Class resolveClass(String typeName, ClassLoader classLoader) {
+
+		if (typeName.endsWith("[]")) {
+			return Array.newInstance(resolveClass(typeName.substring(0, typeName.length() - 2), classLoader), 0).getClass();
+		}
+		Class primitiveType = PRIMITIVE_TYPES.get(typeName);
+		if (primitiveType != null) {
+			return primitiveType;
+		}
+		try {
+			return Class.forName(typeName, false, classLoader);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Class " + typeName + " in the metadata index cannot be loaded", e);
+		}
+
+	}
+
+	private static class IndexedField {
+
+		private final String internalName;
+		private final String externalName;
+		private final int length;
+		private final List<FieldMetaData.Attribute> attributes;
+		private final String typeName;
+
+		IndexedField(String internalName, String externalName, int length, List<FieldMetaData.Attribute> attributes, String typeName) {
+			this.internalName = internalName;
+			this.externalName = externalName;
+			this.length = length;
+			this.attributes = attributes;
+			this.typeName = typeName;
+		}
+	}
+
+}
@@ -0,0 +1,309 @@
+package entity.mapper.metadata.index;
+
+import entity.mapper.metadata.FieldMetaData;
+import entity.mapper.metadata.MetaData;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Annotation processor that writes the field metadata of entity classes to an index resource at build time,
+ * to be read at startup by IndexedMetaDataCollector instead of reflecting over the classes.
+ * <p>
+ * Classes annotated with @Entity, @Embeddable or @MappedSuperclass (javax.persistence), or with fields annotated with @MetaData, are indexed.
+ * The persistence annotations are recognised by name, so no persistence API is needed on the processor path.
+ * <p>
+ * In an incremental build, where only some classes are compiled, the index written by the previous build is merged: its entries are kept
+ * for the classes that were not compiled again and still exist.
+ * <p>
+ * The processor is not registered as a service. Enable it explicitly, e.g. with javac -processor or the maven compiler plugin annotationProcessors.
+ */
+public class MetaDataIndexProcessor extends AbstractProcessor {
+
+	private static final String PERSISTENCE = "javax.persistence.";
+	private static final Set<String> ENTITY_ANNOTATIONS = new HashSet<>(Arrays.asList(PERSISTENCE + "Entity", PERSISTENCE + "Embeddable", PERSISTENCE + "MappedSuperclass"));
+
+	// indexed classes by binary name, sorted so that the index is reproducible
+	private final Map<String, List<String>> index = new TreeMap<>();
+	// binary names of all the classes compiled, indexed or not, whose previous entries are replaced
+	private final Set<String> compiledClasses = new HashSet<>();
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton("*");
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			writeIndex();
+			return false;
+		}
+		for (TypeElement typeElement : ElementFilter.typesIn(roundEnv.getRootElements())) {
+			indexType(typeElement);
+		}
+		return false;
+	}
+
+	private void indexType(TypeElement typeElement) {
+		for (TypeElement nestedType : ElementFilter.typesIn(typeElement.getEnclosedElements())) {
+			indexType(nestedType);
+		}
+
+		String className = processingEnv.getElementUtils().getBinaryName(typeElement).toString();
+		compiledClasses.add(className);
+		List<VariableElement> fields = ElementFilter.fieldsIn(typeElement.getEnclosedElements());
+		boolean entity = typeElement.getAnnotationMirrors().stream().anyMatch(mirror -> ENTITY_ANNOTATIONS.contains(annotationName(mirror)));
+		if (!entity && fields.stream().noneMatch(field -> field.getAnnotation(MetaData.class) != null)) {
+			return;
+		}
+
+		List<String> lines = new ArrayList<>();
+		for (VariableElement field : fields) {
+			if (field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.TRANSIENT) || findAnnotation(field, PERSISTENCE + "Transient") != null) {
+				continue;
+			}
+			lines.add(indexField(field));
+		}
+		index.put(className, lines);
+	}
+
+	private String indexField(VariableElement field) {
+		String internalName = field.getSimpleName().toString();
+		MetaData metaData = field.getAnnotation(MetaData.class);
+		String externalName = metaData != null && !metaData.externalName().isEmpty() ? metaData.externalName() : internalName;
+
+		EnumSet<FieldMetaData.Attribute> attributes = EnumSet.noneOf(FieldMetaData.Attribute.class);
+		TypeMirror fieldType = field.asType();
+		int length = 0;
+
+		if (findAnnotation(field, PERSISTENCE + "Id") != null || findAnnotation(field, PERSISTENCE + "EmbeddedId") != null) {
+			attributes.add(FieldMetaData.Attribute.PRIMARY_KEY);
+		}
+		AnnotationMirror column = findAnnotation(field, PERSISTENCE + "Column");
+		if (column != null) {
+			Object columnLength = annotationValue(column, "length");
+			length = columnLength instanceof Integer ? (Integer) columnLength : 0;
+			if (Boolean.TRUE.equals(annotationValue(column, "unique"))) {
+				attributes.add(FieldMetaData.Attribute.INDEXED);
+			}
+		}
+
+		AnnotationMirror oneToMany = findAnnotation(field, PERSISTENCE + "OneToMany");
+		if (oneToMany != null || findAnnotation(field, PERSISTENCE + "ManyToMany") != null || findAnnotation(field, PERSISTENCE + "ElementCollection") != null
+				|| isCollection(fieldType)) {
+			attributes.add(FieldMetaData.Attribute.COLLECTION);
+			if (oneToMany != null) {
+				attributes.add(FieldMetaData.Attribute.ONE_TO_MANY);
+				if (Boolean.TRUE.equals(annotationValue(oneToMany, "orphanRemoval"))) {
+					attributes.add(FieldMetaData.Attribute.ORPHAN_DELETE);
+				}
+			}
+			fieldType = elementType(fieldType);
+			if (isSimple(fieldType)) {
+				attributes.add(FieldMetaData.Attribute.SIMPLE);
+			}
+		} else if (findAnnotation(field, PERSISTENCE + "ManyToOne") != null || findAnnotation(field, PERSISTENCE + "OneToOne") != null) {
+			attributes.add(FieldMetaData.Attribute.MANY_TO_ONE);
+		} else if (findAnnotation(field, PERSISTENCE + "Embedded") != null || findAnnotation(field, PERSISTENCE + "EmbeddedId") != null || isEmbeddable(fieldType)) {
+			attributes.add(FieldMetaData.Attribute.COMPONENT);
+		} else {
+			attributes.add(FieldMetaData.Attribute.SIMPLE);
+		}
+
+		return IndexedMetaDataCollector.formatField(internalName, externalName, length, attributes, typeName(fieldType));
+	}
+
+	private void writeIndex() {
+		if (compiledClasses.isEmpty()) {
+			return;
+		}
+		Map<String, List<String>> previousIndex = readPreviousIndex();
+		previousIndex.keySet().removeAll(compiledClasses);
+		previousIndex.keySet().removeIf(className -> findType(className) == null);
+		index.putAll(previousIndex);
+		if (index.isEmpty()) {
+			return;
+		}
+		try {
+			FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", IndexedMetaDataCollector.INDEX_RESOURCE);
+			try (Writer writer = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)) {
+				writer.write(IndexedMetaDataCollector.INDEX_HEADER);
+				writer.write('\n');
+				for (Map.Entry<String, List<String>> entry : index.entrySet()) {
+					writer.write(IndexedMetaDataCollector.CLASS_PREFIX + entry.getKey());
+					writer.write('\n');
+					for (String line : entry.getValue()) {
+						writer.write(line);
+						writer.write('\n');
+					}
+				}
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Error writing the metadata index: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the entries of the index written by the previous build, by class, or no entries if there is none
+	 */
+	private Map<String, List<String>> readPreviousIndex() {
+		Map<String, List<String>> previousIndex = new HashMap<>();
+		try {
+			FileObject resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", IndexedMetaDataCollector.INDEX_RESOURCE);
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openInputStream(), StandardCharsets.UTF_8))) {
+				if (!IndexedMetaDataCollector.INDEX_HEADER.equals(reader.readLine())) {
+					// another format, rebuilt from the classes compiled
+					return previousIndex;
+				}
+				List<String> lines = null;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith(IndexedMetaDataCollector.CLASS_PREFIX)) {
+						lines = new ArrayList<>();
+						previousIndex.put(line.substring(IndexedMetaDataCollector.CLASS_PREFIX.length()), lines);
+					} else if (lines != null && !line.isEmpty()) {
+						lines.add(line);
+					}
+				}
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			// no previous index
+		}
+		return previousIndex;
+	}
+
+	/**
+	 * Finds a class by binary name. A '$' in a binary name separates a nested class from its enclosing class, or is part of a class name.
+	 *
+	 * @return the class, or null if it no longer exists
+	 */
+	private TypeElement findType(String binaryName) {
+		TypeElement type = processingEnv.getElementUtils().getTypeElement(binaryName);
+		if (type != null && processingEnv.getElementUtils().getBinaryName(type).contentEquals(binaryName)) {
+			return type;
+		}
+
+		// a nested class, found from the enclosing top level class
+		for (int index = binaryName.indexOf('$'); index > 0; index = binaryName.indexOf('$', index + 1)) {
+			TypeElement enclosingType = processingEnv.getElementUtils().getTypeElement(binaryName.substring(0, index));
+			TypeElement nestedType = enclosingType != null ? findNestedType(enclosingType, binaryName) : null;
+			if (nestedType != null) {
+				return nestedType;
+			}
+		}
+		return null;
+	}
+
+	private TypeElement findNestedType(TypeElement enclosingType, String binaryName) {
+		for (TypeElement nestedType : ElementFilter.typesIn(enclosingType.getEnclosedElements())) {
+			String nestedName = processingEnv.getElementUtils().getBinaryName(nestedType).toString();
+			if (nestedName.equals(binaryName)) {
+				return nestedType;
+			}
+			if (binaryName.startsWith(nestedName + "$")) {
+				TypeElement type = findNestedType(nestedType, binaryName);
+				if (type != null) {
+					return type;
+				}
+			}
+		}
+		return null;
+	}
+
+	private boolean isCollection(TypeMirror type) {
+		TypeElement collection = processingEnv.getElementUtils().getTypeElement("java.util.Collection");
+		return collection != null && type.getKind() == TypeKind.DECLARED
+				&& processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type), processingEnv.getTypeUtils().erasure(collection.asType()));
+	}
+
+	private TypeMirror elementType(TypeMirror collectionType) {
+		if (collectionType.getKind() == TypeKind.DECLARED) {
+			List<? extends TypeMirror> typeArguments = ((DeclaredType) collectionType).getTypeArguments();
+			if (typeArguments.size() == 1) {
+				return typeArguments.get(0);
+			}
+		}
+		return processingEnv.getElementUtils().getTypeElement("java.lang.Object").asType();
+	}
+
+	private boolean isSimple(TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			return true;
+		}
+		String name = typeName(type);
+		return name.startsWith("java.") || name.startsWith("javax.") || isEnum(type);
+	}
+
+	private boolean isEnum(TypeMirror type) {
+		return type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+	}
+
+	private boolean isEmbeddable(TypeMirror type) {
+		return type.getKind() == TypeKind.DECLARED && findAnnotation(((DeclaredType) type).asElement(), PERSISTENCE + "Embeddable") != null;
+	}
+
+	private String typeName(TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			return type.toString();
+		}
+		if (type.getKind() == TypeKind.ARRAY) {
+			// arrays are indexed by their erased source name
+			return processingEnv.getTypeUtils().erasure(type).toString();
+		}
+		if (type.getKind() == TypeKind.DECLARED) {
+			return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) type).asElement()).toString();
+		}
+		return "java.lang.Object";
+	}
+
+	private static AnnotationMirror findAnnotation(Element element, String annotationName) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (annotationName.equals(annotationName(mirror))) {
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	private static String annotationName(AnnotationMirror mirror) {
+		return ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+	}
+
+	private static Object annotationValue(AnnotationMirror mirror, String name) {
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals(name)) {
+				return entry.getValue().getValue();
+			}
+		}
+		return null;
+	}
+}
@@ -2,9 +2,21 @@ package entity.mapper.metadata.reflector;
 
 import entity.mapper.metadata.ClassContext;
 import entity.mapper.metadata.FieldMetaDataList;
+import entity.mapper.metadata.MetaDataCache;
 
 public interface MetaDataCollector {
 
 	FieldMetaDataList buildFieldMetaDataList(ClassContext clazz, FieldMetaDataList currentList);
 
+	/**
+	 * Will return a key identifying the configuration of the collector (see Reflector.getConfigurationKey()).
+	 * Collectors whose metadata depends on more than their classes must override it.
+	 * @return - the configuration key, by default the class of the collector and the hash of its bytecode
+	 */
+	default String getConfigurationKey() {
+
+		return MetaDataCache.classKey(getClass());
+
+	}
+
 }